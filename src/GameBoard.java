@@ -1,140 +1,147 @@
 import java.io.FileWriter;
 import java.io.File;
 import java.io.BufferedWriter;
-import java.util.Scanner;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import javax.management.JMException;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 /**
  * Main class that simulates the insect moving game.
  * Reads input data, validates it, simulates insect movements, and writes results to output file.
  */
 public class GameBoard {
-    private static Board boardData;
-    private static List<EliminatedInsect> eliminatedInsects = new ArrayList<>();
-    private static int boardSize;
+    private final SimulationConfig config;
+    private Board boardData;
+    private List<EliminatedInsect> eliminatedInsects = new ArrayList<>();
+    private int boardSize;
 
     private static final int MIN_BOARD_SIZE = 4;
-    private static final int MAX_BOARD_SIZE = 1000;
     private static final int MIN_INSECT_NUMBER = 1;
-    private static final int MAX_INSECT_NUMBER = 16;
     private static final int MIN_FOOD_NUMBER = 1;
-    private static final int MAX_FOOD_NUMBER = 200;
+
+    private static final String[] COLOR_NAMES = {"red", "green", "blue", "yellow"};
+    private static final InsectColor[] COLORS = {InsectColor.RED, InsectColor.GREEN, InsectColor.BLUE,
+        InsectColor.YELLOW};
+    private static final String[] INSECT_NAMES = InsectType.keywords();
+    private static final InsectType[] INSECT_TYPES = InsectType.values();
+    private static final Direction[] ORTHOGONAL_DIRECTIONS = {Direction.N, Direction.E, Direction.S, Direction.W};
+    private static final SimulationMetrics METRICS = SimulationMetrics.INSTANCE;
 
     /**
-     * Checks if there are duplicate insects (same type and color) on the board.
-     *
-     * @return true if duplicate insects are found, false otherwise
+     * Creates a new GameBoard with the default configuration.
      */
-    private static boolean isDuplicate() {
-        for (int i = 0; i < boardData.getLastIdxOfInsect() + 1; ++i) {
-            Insect insect = (Insect) boardData.getEntity(i);
-            for (int j = i + 1; j < boardData.getLastIdxOfInsect() + 1; ++j) {
-                Insect insect2 = (Insect) boardData.getEntity(j);
-                if (Insect.defineNameOfInstance(insect).equals(Insect.defineNameOfInstance(insect2))
-                        && insect.getColorName().equals(insect2.getColorName())) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    public GameBoard() {
+        this(new SimulationConfig());
     }
 
     /**
-     * Checks if any two entities share the same position on the board.
+     * Creates a new GameBoard with the given configuration.
      *
-     * @return true if entities share the same position, false otherwise
+     * @param config the limits and storage options of the simulation
      */
-    private static boolean isTheSamePosition() {
-        for (int i = 0; i < boardData.getLastIdx() + 1; ++i) {
-            EntityPosition entity = boardData.getEntity(i).entityPosition;
-            for (int j = i + 1; j < boardData.getLastIdx() + 1; ++j) {
-                if (boardData.getEntity(j) == null) {
-                    System.out.println("wtf");
-                }
-                EntityPosition entity2 = boardData.getEntity(j).entityPosition;
-                if (entity.getX() == entity2.getX() && entity.getY() == entity2.getY()) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    public GameBoard(SimulationConfig config) {
+        this.config = config;
     }
 
     /**
-     * Reads and validates input data from input.txt file.
+     * Reads and validates input data from the input file.
+     * A board snapshot is restored as it was taken, without the validation of a scenario.
+     * If the data is invalid, the error message is written to the output file.
      *
+     * @param inputFile the file to read the scenario from
+     * @param outputFile the file to write an error message to
+     * @param snapshot true if the input file is a board snapshot
      * @return true if data is successfully read and validated, false if errors occur
      */
-    private static boolean readData() {
+    boolean readData(File inputFile, File outputFile, boolean snapshot) {
         try {
-            Scanner input = new Scanner(new File("input.txt"));
-            boardSize = input.nextInt();
-            if (boardSize < MIN_BOARD_SIZE || boardSize > MAX_BOARD_SIZE) {
-                throw new InvalidBoardSizeException();
-            }
-            int insectsNumber = input.nextInt();
-            if (insectsNumber < MIN_INSECT_NUMBER || insectsNumber > MAX_INSECT_NUMBER) {
-                throw new InvalidNumberOfInsectsException();
-            }
-            int foodNumber = input.nextInt();
-            if (foodNumber < MIN_FOOD_NUMBER || foodNumber > MAX_FOOD_NUMBER) {
-                throw new InvalidNumberOfFoodPointsException();
-            }
-            boardData = new Board(boardSize);
-
-            // Reading insects
-            for (int i = 0; i < insectsNumber; ++i) {
-                InsectColor color = InsectColor.toColor(input.next());
-                if (color == InsectColor.NONE) {
-                    throw new InvalidInsectColorException();
-                }
-                String name = input.next().toLowerCase();
-                int y = input.nextInt();
-                int x = input.nextInt();
-                EntityPosition position = new EntityPosition(x, y);
-                switch (name) {
-                    case "grasshopper":
-                        boardData.addEntity(new Grasshopper(position, color));
-                        break;
-                    case "butterfly":
-                        boardData.addEntity(new Butterfly(position, color));
-                        break;
-                    case "ant":
-                        boardData.addEntity(new Ant(position, color));
-                        break;
-                    case "spider":
-                        boardData.addEntity(new Spider(position, color));
-                        break;
-                    default:
-                        throw new InvalidInsectTypeException();
-                }
-                if (x < 1 || y < 1 || x > boardSize || y > boardSize) {
-                    throw new InvalidEntityPositionException();
-                }
-            }
-
-            // Reading food
-            for (int i = 0; i < foodNumber; ++i) {
-                int foodAmount = input.nextInt();
-                int y = input.nextInt();
-                int x = input.nextInt();
-                EntityPosition position = new EntityPosition(x, y);
-                boardData.addEntity(new FoodPoint(position, foodAmount));
-            }
-
-            if (isDuplicate()) {
-                throw new DuplicateInsectException();
-            }
-            if (isTheSamePosition()) {
-                throw new TwoEntitiesOnSamePositionException();
+            if (snapshot) {
+                boardData = BoardSnapshot.read(inputFile, config);
+                boardSize = boardData.getSize();
+            } else {
+                try (ScenarioTokenizer input = new ScenarioTokenizer(inputFile)) {
+                    parseScenario(input);
+                }
             }
-
         } catch (Exception e) {
+            if (config.getOutputFormat() == OutputFormat.BINARY) {
+                // As with text, an error without a message empties the output file and leaves the board
+                // read so far to be simulated
+                writeBytes(outputFile, e.getMessage() == null ? new byte[0]
+                        : BinaryResults.encodeError(e.getMessage()));
+                return e.getMessage() == null;
+            }
             try {
-                BufferedWriter output = new BufferedWriter(new FileWriter("output.txt"));
+                BufferedWriter output = new BufferedWriter(new FileWriter(outputFile));
                 output.write(e.getMessage());
                 output.close();
                 return false;
@@ -146,515 +153,5914 @@ public class GameBoard {
     }
 
     /**
-     * Main method that orchestrates the game simulation.
+     * Reads and validates a scenario held in memory, and returns its board without simulating it.
      *
-     * @param args command line arguments (not used)
+     * @param scenario the scenario, in the format of an input file
+     * @return the board holding the entities of the scenario
+     * @throws Exception if the scenario is invalid or cannot be read
      */
-    public static void main(String[] args) {
-        // Reading and checking validness
-        boolean resultOfDataReading = readData();
-        if (!resultOfDataReading) {
+    Board load(byte[] scenario) throws Exception {
+        readBytes(scenario);
+        return boardData;
+    }
+
+    /**
+     * Reads a scenario held in memory onto a new board and validates it, or restores a board snapshot.
+     *
+     * @param scenario the scenario, in the format of an input file, or a board snapshot
+     * @throws Exception if the scenario is invalid or cannot be read
+     */
+    private void readBytes(byte[] scenario) throws Exception {
+        if (BoardSnapshot.isSnapshot(scenario)) {
+            boardData = BoardSnapshot.read(scenario, config);
+            boardSize = boardData.getSize();
             return;
         }
+        try (ScenarioTokenizer input = new ScenarioTokenizer(scenario)) {
+            parseScenario(input);
+        }
+    }
 
-        // Moving
-        for (int i = 0; i < boardData.getLastIdxOfInsect() + 1; ++i) {
-            Insect myInsect = (Insect) boardData.getEntity(i);
-            Direction bestDirection = myInsect.getBestDirection(boardData, boardSize);
-            int gatheredValue = myInsect.travelDirection(bestDirection, boardData, boardSize);
-            boardData.removeEntity(i);
-            eliminatedInsects.add(new EliminatedInsect(myInsect.getColorName(),
-                    Insect.defineNameOfInstance(myInsect), bestDirection, gatheredValue));
+    /**
+     * Creates an empty board with the storage and ray options of a configuration.
+     *
+     * @param config the simulation configuration
+     * @param boardSize the size of the board
+     * @param capacity the expected number of entities
+     * @return the new board
+     * @throws IOException if the off-heap backing files cannot be created
+     */
+    static Board createBoard(SimulationConfig config, int boardSize, int capacity) throws IOException {
+        Board board = switch (config.getStorageMode()) {
+            case COMPACT -> Board.createCompact(boardSize, capacity);
+            case OFF_HEAP -> Board.createOffHeap(boardSize, capacity, config.getOffHeapDirectory());
+            default -> new Board(boardSize);
+        };
+        if (config.getStorageMode() != StorageMode.OFF_HEAP) {
+            board.setRayStrategy(config.getRayStrategy());
+        }
+        return board;
+    }
+
+    /**
+     * Reads a scenario onto a new board and validates it.
+     *
+     * @param input the tokenizer to read the scenario from
+     * @throws Exception if the scenario is invalid or cannot be read
+     */
+    private void parseScenario(ScenarioTokenizer input) throws Exception {
+        long start = METRICS.startTimer();
+        boolean hasDuplicateInsects;
+        try {
+            hasDuplicateInsects = readScenario(input);
+        } finally {
+            METRICS.stopTimer(SimulationMetrics.Phase.PARSE, start);
         }
+
+        start = METRICS.startTimer();
         try {
-            BufferedWriter output = new BufferedWriter(new FileWriter("output.txt"));
-            for (EliminatedInsect eliminatedInsect : eliminatedInsects) {
-                output.write(eliminatedInsect.getInsectResultString() + '\n');
+            // Both checks are known during parsing but reported only after it, since parsing errors come first
+            if (hasDuplicateInsects) {
+                throw new DuplicateInsectException();
             }
-            output.close();
-        } catch (Exception ex) {
-            // Ignore
+            if (boardData.hasSharedPositions()) {
+                throw new TwoEntitiesOnSamePositionException();
+            }
+        } finally {
+            METRICS.stopTimer(SimulationMetrics.Phase.VALIDATE, start);
         }
     }
-}
 
-// Exceptions
+    /**
+     * Reads the entities of a scenario onto a new board, checking each value as it is read.
+     *
+     * @param input the tokenizer to read the scenario from
+     * @return true if some insect type appears twice with the same color
+     * @throws Exception if a value is invalid or cannot be read
+     */
+    private boolean readScenario(ScenarioTokenizer input) throws Exception {
+        boardSize = input.nextInt();
+        if (boardSize < MIN_BOARD_SIZE || boardSize > config.getMaxBoardSize()) {
+            throw new InvalidBoardSizeException();
+        }
+        int insectsNumber = input.nextInt();
+        if (insectsNumber < MIN_INSECT_NUMBER || insectsNumber > config.getMaxInsectNumber()) {
+            throw new InvalidNumberOfInsectsException();
+        }
+        int foodNumber = input.nextInt();
+        if (foodNumber < MIN_FOOD_NUMBER || foodNumber > config.getMaxFoodNumber()) {
+            throw new InvalidNumberOfFoodPointsException();
+        }
+        int capacity = (int) Math.min((long) insectsNumber + foodNumber, Integer.MAX_VALUE - 8);
+        boardData = createBoard(config, boardSize, capacity);
+        // One bit per (insect type, color) pair met so far
+        long seenInsects = 0;
+        boolean hasDuplicateInsects = false;
 
-/**
- * Exception thrown when board size is outside valid range.
- */
-class InvalidBoardSizeException extends Exception {
-    public InvalidBoardSizeException() {
-        super("Invalid board size");
-    }
+        // Reading insects
+        for (int i = 0; i < insectsNumber; ++i) {
+            int colorIdx = input.nextKeyword(COLOR_NAMES);
+            InsectColor color = colorIdx < 0 ? InsectColor.NONE : COLORS[colorIdx];
+            if (color == InsectColor.NONE) {
+                throw new InvalidInsectColorException();
+            }
+            int nameIdx = input.nextKeyword(INSECT_NAMES);
+            int y = input.nextInt();
+            int x = input.nextInt();
+            if (nameIdx < 0) {
+                throw new InvalidInsectTypeException();
+            }
+            InsectType type = INSECT_TYPES[nameIdx];
+            boardData.addEntity(type.create(new EntityPosition(x, y), color));
+            if (x < 1 || y < 1 || x > boardSize || y > boardSize) {
+                throw new InvalidEntityPositionException();
+            }
+            long insectBit = 1L << (type.ordinal() * COLORS.length + colorIdx);
+            hasDuplicateInsects |= (seenInsects & insectBit) != 0;
+            seenInsects |= insectBit;
+        }
 
-    @Override
-    public String getMessage() {
-        return super.getMessage();
+        // Reading food
+        if (config.getFoodRunSize() > 0) {
+            readSpilledFood(input, foodNumber);
+            return hasDuplicateInsects;
+        }
+        for (int i = 0; i < foodNumber; ++i) {
+            int foodAmount = input.nextInt();
+            int y = input.nextInt();
+            int x = input.nextInt();
+            EntityPosition position = new EntityPosition(x, y);
+            boardData.addEntity(new FoodPoint(position, foodAmount));
+        }
+        return hasDuplicateInsects;
     }
-}
 
-/**
- * Exception thrown when number of insects is outside valid range.
- */
-class InvalidNumberOfInsectsException extends Exception {
-    public InvalidNumberOfInsectsException() {
-        super("Invalid number of insects");
+    /**
+     * Reads the food points of a scenario through a FoodSpill and merges them onto the board in row-major order.
+     *
+     * @param input the tokenizer to read the scenario from
+     * @param foodNumber the number of food points
+     * @throws Exception if a value cannot be read or the spill fails
+     */
+    private void readSpilledFood(ScenarioTokenizer input, int foodNumber) throws Exception {
+        try (FoodSpill spill = new FoodSpill(Math.min(config.getFoodRunSize(), foodNumber),
+                config.getOffHeapDirectory())) {
+            try {
+                for (int i = 0; i < foodNumber; ++i) {
+                    int foodAmount = input.nextInt();
+                    int y = input.nextInt();
+                    int x = input.nextInt();
+                    spill.add(x, y, foodAmount);
+                }
+            } catch (Exception e) {
+                // The food read before an error is merged too, as it would be on the board when added directly.
+                // The error is what the scenario reports, so a failing merge or close is only attached to it
+                try {
+                    spill.mergeInto(boardData, false);
+                } catch (Exception mergeFailure) {
+                    e.addSuppressed(mergeFailure);
+                }
+                throw e;
+            }
+            // A complete scenario is invalid once a position is shared, so its merge can stop there
+            spill.mergeInto(boardData, true);
+        }
     }
 
-    @Override
-    public String getMessage() {
-        return super.getMessage();
+    /**
+     * Moves every insect in turn and records the results.
+     */
+    private void simulate() {
+        if (config.isParallelDecisions()) {
+            eliminatedInsects.addAll(new OptimisticTurns(boardData, boardSize).run());
+            return;
+        }
+        playTurns(boardData.getLastIdxOfInsect() + 1);
     }
-}
 
-/**
- * Exception thrown when number of food points is outside valid range.
- */
-class InvalidNumberOfFoodPointsException extends Exception {
-    public InvalidNumberOfFoodPointsException() {
-        super("Invalid number of food points");
+    /**
+     * Moves the insects below an index in turn and records the results.
+     *
+     * @param turns the number of turns to play
+     */
+    private void playTurns(int turns) {
+        for (int i = 0; i < turns; ++i) {
+            Insect myInsect = (Insect) boardData.getEntity(i);
+            if (myInsect == null) {
+                // Played before the board snapshot the simulation resumes from
+                continue;
+            }
+            long start = METRICS.startTimer();
+            Direction bestDirection = myInsect.getBestDirection(boardData, boardSize);
+            METRICS.stopTimer(SimulationMetrics.Phase.DECIDE, start);
+            start = METRICS.startTimer();
+            int gatheredValue = myInsect.travelDirection(bestDirection, boardData, boardSize);
+            boardData.removeEntity(i);
+            METRICS.stopTimer(SimulationMetrics.Phase.TRAVEL, start);
+            eliminatedInsects.add(new EliminatedInsect(myInsect.insectColor, myInsect.getType(), bestDirection,
+                    gatheredValue));
+        }
     }
 
-    @Override
-    public String getMessage() {
-        return super.getMessage();
+    /**
+     * Writes the results of the eliminated insects to the output file.
+     *
+     * @param outputFile the file to write the results to
+     */
+    private void writeResults(File outputFile) {
+        if (config.getOutputFormat() == OutputFormat.BINARY) {
+            long start = METRICS.startTimer();
+            writeBytes(outputFile, BinaryResults.encode(eliminatedInsects));
+            METRICS.stopTimer(SimulationMetrics.Phase.WRITE, start);
+            return;
+        }
+        try {
+            BufferedWriter output = new BufferedWriter(new FileWriter(outputFile));
+            writeResults(output);
+            output.close();
+        } catch (Exception ex) {
+            // Ignore
+        }
     }
-}
 
-/**
- * Exception thrown when insect color is invalid.
- */
-class InvalidInsectColorException extends Exception {
-    public InvalidInsectColorException() {
-        super("Invalid insect color");
+    /**
+     * Writes bytes to a file.
+     *
+     * @param outputFile the file to write to
+     * @param data the bytes to write
+     */
+    static void writeBytes(File outputFile, byte[] data) {
+        try {
+            Files.write(outputFile.toPath(), data);
+        } catch (Exception ex) {
+            // Ignore
+        }
     }
 
-    @Override
-    public String getMessage() {
-        return super.getMessage();
+    /**
+     * Writes a text to a file.
+     *
+     * @param outputFile the file to write to
+     * @param text the text to write
+     */
+    static void writeText(File outputFile, String text) {
+        try {
+            BufferedWriter output = new BufferedWriter(new FileWriter(outputFile));
+            output.write(text);
+            output.close();
+        } catch (Exception ex) {
+            // Ignore
+        }
     }
-}
 
-/**
- * Exception thrown when insect type is invalid.
- */
-class InvalidInsectTypeException extends Exception {
-    public InvalidInsectTypeException() {
-        super("Invalid insect type");
+    /**
+     * Writes the results of the eliminated insects, one line per insect.
+     *
+     * @param output the writer to write the results to
+     * @throws IOException if writing fails
+     */
+    private void writeResults(Writer output) throws IOException {
+        long start = METRICS.startTimer();
+        try {
+            for (EliminatedInsect eliminatedInsect : eliminatedInsects) {
+                output.write(eliminatedInsect.getInsectResultString() + '\n');
+            }
+        } finally {
+            METRICS.stopTimer(SimulationMetrics.Phase.WRITE, start);
+        }
     }
 
-    @Override
-    public String getMessage() {
-        return super.getMessage();
+    /**
+     * Runs one scenario: reads it, simulates it and writes the results.
+     * With a result cache configured and text output, a scenario seen before is answered from the cache;
+     * board snapshots are always simulated.
+     *
+     * @param inputFile the scenario file
+     * @param outputFile the file to write the results or the error message to
+     */
+    public void run(File inputFile, File outputFile) {
+        boolean snapshot = BoardSnapshot.isSnapshot(inputFile);
+        // The cache holds text outputs, and keys scenarios by their tokens, which snapshots do not have
+        ResultCache cache = config.getOutputFormat() == OutputFormat.TEXT && !snapshot ? config.getResultCache() : null;
+        String key = cache == null ? null : cache.keyOf(inputFile, config);
+        String cachedOutput = key == null ? null : cache.get(key);
+        if (cachedOutput != null) {
+            writeText(outputFile, cachedOutput);
+            return;
+        }
+        if (key == null) {
+            simulateFile(inputFile, outputFile, snapshot);
+            return;
+        }
+        // Cached as built, since a failed write would leave the output file stale
+        String output = simulateText(inputFile, outputFile);
+        writeText(outputFile, output);
+        cache.put(key, output);
     }
-}
 
-/**
- * Exception thrown when entity position is outside board boundaries.
- */
-class InvalidEntityPositionException extends Exception {
-    public InvalidEntityPositionException() {
-        super("Invalid entity position");
+    /**
+     * Reads a scenario file, simulates it and writes the results.
+     *
+     * @param inputFile the scenario file
+     * @param outputFile the file to write the results or the error message to
+     * @param snapshot true if the input file is a board snapshot
+     */
+    private void simulateFile(File inputFile, File outputFile, boolean snapshot) {
+        // Reading and checking validness
+        boolean resultOfDataReading = readData(inputFile, outputFile, snapshot);
+        if (!resultOfDataReading) {
+            return;
+        }
+
+        // Moving
+        simulate();
+        writeResults(outputFile);
     }
 
-    @Override
-    public String getMessage() {
-        return super.getMessage();
+    /**
+     * Runs one scenario or board snapshot held in memory.
+     * The result is what run would write to the output file.
+     *
+     * @param scenario the scenario, in the format of an input file, or a board snapshot
+     * @return the results, or the error message if the scenario is invalid
+     */
+    public String run(byte[] scenario) {
+        ResultCache cache = BoardSnapshot.isSnapshot(scenario) ? null : config.getResultCache();
+        String key = cache == null ? null : cache.keyOf(scenario, config);
+        String cachedOutput = key == null ? null : cache.get(key);
+        if (cachedOutput != null) {
+            return cachedOutput;
+        }
+        String output = simulateBytes(scenario);
+        if (key != null) {
+            cache.put(key, output);
+        }
+        return output;
     }
-}
 
-/**
- * Exception thrown when duplicate insects (same type and color) are found.
- */
-class DuplicateInsectException extends Exception {
-    public DuplicateInsectException() {
-        super("Duplicate insects");
+    /**
+     * Reads a scenario held in memory, simulates it and returns the results, bypassing the result cache.
+     *
+     * @param scenario the scenario, in the format of an input file, or a board snapshot
+     * @return the results, or the error message if the scenario is invalid
+     */
+    String simulateBytes(byte[] scenario) {
+        try {
+            readBytes(scenario);
+        } catch (Exception e) {
+            // As with files, an error without a message leaves the board read so far to be simulated
+            if (e.getMessage() != null) {
+                return e.getMessage();
+            }
+        }
+        return simulateToText();
     }
 
-    @Override
-    public String getMessage() {
-        return super.getMessage();
+    /**
+     * Reads a scenario held in memory, simulates it and returns the results in the binary format,
+     * bypassing the result cache.
+     *
+     * @param scenario the scenario, in the format of an input file, or a board snapshot
+     * @return the encoded results, or the encoded error message if the scenario is invalid
+     */
+    byte[] simulateBinary(byte[] scenario) {
+        try {
+            readBytes(scenario);
+        } catch (Exception e) {
+            // As in readData, an error without a message leaves the board read so far to be simulated
+            if (e.getMessage() != null) {
+                return BinaryResults.encodeError(e.getMessage());
+            }
+        }
+        simulate();
+        long start = METRICS.startTimer();
+        byte[] data = BinaryResults.encode(eliminatedInsects);
+        METRICS.stopTimer(SimulationMetrics.Phase.WRITE, start);
+        return data;
     }
-}
 
-/**
- * Exception thrown when two entities occupy the same position.
- */
-class TwoEntitiesOnSamePositionException extends Exception {
-    public TwoEntitiesOnSamePositionException() {
-        super("Two entities in the same position");
+    /**
+     * Reads a scenario file, simulates it and returns the results as text.
+     *
+     * @param inputFile the scenario file
+     * @param outputFile the file the results are to be written to
+     * @return the results, or the error message if the scenario is invalid
+     */
+    private String simulateText(File inputFile, File outputFile) {
+        try (ScenarioTokenizer input = new ScenarioTokenizer(inputFile)) {
+            parseScenario(input);
+        } catch (Exception e) {
+            if (e.getMessage() != null) {
+                return e.getMessage();
+            }
+            // As in readData, an error without a message empties the output file and leaves the board
+            // read so far to be simulated
+            writeText(outputFile, "");
+        }
+        return simulateToText();
     }
 
-    @Override
-    public String getMessage() {
-        return super.getMessage();
+    /**
+     * Simulates the board read and returns the results as text.
+     *
+     * @return the results
+     */
+    private String simulateToText() {
+        simulate();
+        StringWriter output = new StringWriter();
+        try {
+            writeResults(output);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return output.toString();
     }
-}
 
-// Enums
+    /**
+     * Reads and validates a scenario file, plays its first turns and writes a snapshot of the board.
+     * Running the snapshot as an input file plays the remaining turns.
+     *
+     * @param inputFile the scenario file
+     * @param snapshotFile the file to write the snapshot to
+     * @param turns the number of turns to play before the snapshot is taken
+     * @throws Exception if the scenario is invalid or a file cannot be read or written
+     */
+    void snapshot(File inputFile, File snapshotFile, int turns) throws Exception {
+        try (ScenarioTokenizer input = new ScenarioTokenizer(inputFile)) {
+            parseScenario(input);
+        }
+        playTurns(Math.min(turns, boardData.getLastIdxOfInsect() + 1));
+        BoardSnapshot.write(boardData, snapshotFile);
+    }
+
+    /**
+     * Plays a scenario file for many ticks and writes the state of its insects.
+     *
+     * @param args the arguments after "--continuous": input file, output file, ticks, then optionally
+     *             the food per tick and the seed
+     * @param config the simulation configuration
+     */
+    private static void runContinuous(String[] args, SimulationConfig config) {
+        try {
+            long ticks = Long.parseLong(args[3]);
+            int foodPerTick = args.length > 4
+                    ? Integer.parseInt(args[4]) : ContinuousSimulation.DEFAULT_FOOD_PER_TICK;
+            long seed = args.length > 5 ? Long.parseLong(args[5]) : 0;
+            Board board = new GameBoard(config).load(Files.readAllBytes(Path.of(args[1])));
+            ContinuousSimulation simulation = new ContinuousSimulation(board, seed, foodPerTick,
+                    ContinuousSimulation.DEFAULT_MAX_FOOD_VALUE);
+            long start = System.nanoTime();
+            simulation.run(ticks);
+            long nanos = System.nanoTime() - start;
+            writeText(new File(args[2]), simulation.getResults());
+            System.out.printf("%d ticks in %.3f s: %d moves, %d wakeups, %d food spawned, %d food eaten%n",
+                    simulation.getTicks(), nanos / 1e9, simulation.getMoves(), simulation.getWakeups(),
+                    simulation.getFoodSpawned(), simulation.getFoodEaten());
+        } catch (Exception ex) {
+            System.err.println("Continuous simulation failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Main method that orchestrates the game simulation.
+     * Without arguments, simulates input.txt into output.txt.
+     * With "--batch &lt;directory or manifest&gt; &lt;output directory&gt;", simulates many scenarios in parallel;
+     * "--pipeline" in place of "--batch" also overlaps reading and writing files with the simulations.
+     * With "--serve &lt;socket path&gt; [queue capacity]", keeps serving scenarios over a Unix domain socket.
+     * With "--continuous &lt;input file&gt; &lt;output file&gt; &lt;ticks&gt; [food per tick] [seed]",
+     * plays the scenario for many ticks with food respawning, see ContinuousSimulation.
+     * With "--snapshot &lt;input file&gt; &lt;snapshot file&gt; [turns]", writes a BoardSnapshot of the scenario
+     * after its first turns; a snapshot can take the place of any scenario: input.txt, a scenario file of
+     * --batch or --pipeline, a request to --serve or the input file of --continuous.
+     * Limits and storage are taken from the system properties described in SimulationConfig.
+     * With the system property gameboard.metrics set to true, the SimulationMetrics counters are enabled
+     * and registered with the platform MBean server.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        SimulationConfig config = SimulationConfig.fromSystemProperties();
+        if (Boolean.getBoolean("gameboard.metrics")) {
+            try {
+                METRICS.register();
+                METRICS.setEnabled(true);
+            } catch (JMException ex) {
+                System.err.println("Metrics unavailable: " + ex.getMessage());
+            }
+        }
+        if (args.length == 0) {
+            new GameBoard(config).run(new File("input.txt"), new File("output.txt"));
+            return;
+        }
+        if (args[0].equals("--serve") && (args.length == 2 || args.length == 3)) {
+            try {
+                int queueCapacity = args.length == 3
+                        ? Integer.parseInt(args[2]) : SimulationServer.DEFAULT_QUEUE_CAPACITY;
+                new SimulationServer(Path.of(args[1]), config, Runtime.getRuntime().availableProcessors(),
+                        queueCapacity).serve();
+            } catch (IOException | NumberFormatException ex) {
+                System.err.println("Server failed: " + ex.getMessage());
+            }
+            return;
+        }
+        if (args[0].equals("--snapshot") && (args.length == 3 || args.length == 4)) {
+            try {
+                new GameBoard(config).snapshot(new File(args[1]), new File(args[2]),
+                        args.length == 4 ? Integer.parseInt(args[3]) : 0);
+            } catch (Exception ex) {
+                System.err.println("Snapshot failed: " + ex.getMessage());
+            }
+            return;
+        }
+        if (args[0].equals("--continuous") && args.length >= 4 && args.length <= 6) {
+            runContinuous(args, config);
+            return;
+        }
+        if (args.length != 3 || !args[0].equals("--batch") && !args[0].equals("--pipeline")) {
+            System.err.println("Usage: GameBoard [--batch | --pipeline"
+                    + " <scenario directory or manifest> <output directory>]"
+                    + " | [--serve <socket path> [queue capacity]]"
+                    + " | [--continuous <input file> <output file> <ticks> [food per tick] [seed]]"
+                    + " | [--snapshot <input file> <snapshot file> [turns]]");
+            return;
+        }
+        try {
+            BatchRunner batchRunner = new BatchRunner(new File(args[1]), new File(args[2]), config);
+            if (args[0].equals("--pipeline")) {
+                batchRunner.runPipelined(Runtime.getRuntime().availableProcessors());
+            } else {
+                batchRunner.run(Runtime.getRuntime().availableProcessors());
+            }
+        } catch (IOException ex) {
+            System.err.println("Batch failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Scenario and hot paths of the simulation as seen by GameBoardBenchmark.
+     * The benchmark lives in its own source file, where the types declared next to GameBoard are not meant
+     * to be used, so it reaches them only through this class, with types and colors given by their ordinals.
+     */
+    static final class BenchmarkTarget {
+        private final int size;
+        private final int[] insectXs;
+        private final int[] insectYs;
+        private final int[] insectTypes;
+        private final int[] insectColors;
+        private final int[] foodXs;
+        private final int[] foodYs;
+        private final int[] foodValues;
+        private final Board sharedBoard;
+        private final EntityPosition probe = new EntityPosition(0, 0);
+        private final List<List<Insect>> decidingInsects = new ArrayList<>();
+        private final Board[] rayBoards = new Board[RayStrategy.values().length];
+        private Board travelBoard;
+        private List<Insect> travelInsects;
+        private List<EliminatedInsect> results;
+
+        /**
+         * Creates a new BenchmarkTarget holding a scenario.
+         *
+         * @param size the board size
+         * @param insectXs the x-coordinates of the insects
+         * @param insectYs the y-coordinates of the insects
+         * @param insectTypes the type ordinals of the insects
+         * @param insectColors the color numbers of the insects, as counted by getColorCount
+         * @param foodXs the x-coordinates of the food points
+         * @param foodYs the y-coordinates of the food points
+         * @param foodValues the values of the food points
+         */
+        BenchmarkTarget(int size, int[] insectXs, int[] insectYs, int[] insectTypes, int[] insectColors,
+                        int[] foodXs, int[] foodYs, int[] foodValues) {
+            this.size = size;
+            this.insectXs = insectXs;
+            this.insectYs = insectYs;
+            this.insectTypes = insectTypes;
+            this.insectColors = insectColors;
+            this.foodXs = foodXs;
+            this.foodYs = foodYs;
+            this.foodValues = foodValues;
+            sharedBoard = createBoard();
+            for (InsectType type : INSECT_TYPES) {
+                decidingInsects.add(insectsOf(sharedBoard, type));
+            }
+        }
+
+        /**
+         * Gets the number of insect types.
+         *
+         * @return the number of insect types
+         */
+        static int getTypeCount() {
+            return INSECT_TYPES.length;
+        }
+
+        /**
+         * Gets the number of insect colors of a scenario.
+         *
+         * @return the number of colors
+         */
+        static int getColorCount() {
+            return COLORS.length;
+        }
+
+        /**
+         * Gets the name of an insect type as it appears in the results.
+         *
+         * @param type the type ordinal
+         * @return the type name
+         */
+        static String getTypeName(int type) {
+            return INSECT_TYPES[type].getDisplayName();
+        }
+
+        /**
+         * Gets the number of ray strategies.
+         *
+         * @return the number of ray strategies
+         */
+        static int getRayStrategyCount() {
+            return RayStrategy.values().length;
+        }
+
+        /**
+         * Gets the lowercase name of a ray strategy.
+         *
+         * @param strategy the strategy ordinal
+         * @return the strategy name
+         */
+        static String getRayStrategyName(int strategy) {
+            return RayStrategy.values()[strategy].name().toLowerCase();
+        }
+
+        /**
+         * Creates a GameBoard without limits on the board size and the number of food points.
+         *
+         * @return the new GameBoard
+         */
+        static GameBoard createUnlimitedGameBoard() {
+            SimulationConfig config = new SimulationConfig();
+            config.setMaxBoardSize(Integer.MAX_VALUE);
+            config.setMaxFoodNumber(Integer.MAX_VALUE);
+            return new GameBoard(config);
+        }
+
+        /**
+         * Writes the scenario in the input file format.
+         *
+         * @param file the file to write to
+         * @throws IOException if writing fails
+         */
+        void writeTo(File file) throws IOException {
+            try (BufferedWriter output = new BufferedWriter(new FileWriter(file))) {
+                output.write(size + "\n" + insectXs.length + "\n" + foodXs.length + "\n");
+                for (int i = 0; i < insectXs.length; ++i) {
+                    output.write(COLORS[insectColors[i]].name() + " " + INSECT_TYPES[insectTypes[i]].name() + " "
+                            + insectYs[i] + " " + insectXs[i] + "\n");
+                }
+                for (int i = 0; i < foodXs.length; ++i) {
+                    output.write(foodValues[i] + " " + foodYs[i] + " " + foodXs[i] + "\n");
+                }
+            }
+        }
+
+        /**
+         * Builds a board holding the scenario.
+         *
+         * @return the new board
+         */
+        private Board createBoard() {
+            Board board = new Board(size);
+            for (int i = 0; i < insectXs.length; ++i) {
+                board.addEntity(INSECT_TYPES[insectTypes[i]].create(new EntityPosition(insectXs[i], insectYs[i]),
+                        COLORS[insectColors[i]]));
+            }
+            for (int i = 0; i < foodXs.length; ++i) {
+                board.addEntity(new FoodPoint(new EntityPosition(foodXs[i], foodYs[i]), foodValues[i]));
+            }
+            return board;
+        }
+
+        /**
+         * Creates insects of the given type at the positions of the scenario insects.
+         *
+         * @param board the board whose insects give the positions and colors
+         * @param type the insect type
+         * @return the new insects
+         */
+        private List<Insect> insectsOf(Board board, InsectType type) {
+            List<Insect> insects = new ArrayList<>();
+            for (int i = 0; i < insectXs.length; ++i) {
+                Insect insect = (Insect) board.getEntity(i);
+                insects.add(type.create(insect.entityPosition, insect.insectColor));
+            }
+            return insects;
+        }
+
+        /**
+         * Looks up the entities at positions of the shared board.
+         *
+         * @param probes the x- and y-coordinates of the positions, interleaved
+         * @return the number of positions holding an entity
+         */
+        int lookUp(int[] probes) {
+            int found = 0;
+            for (int i = 0; i < probes.length; i += 2) {
+                probe.moveX(probes[i] - probe.getX());
+                probe.moveY(probes[i + 1] - probe.getY());
+                found += sharedBoard.getEntity(probe) == null ? 0 : 1;
+            }
+            return found;
+        }
+
+        /**
+         * Lets insects of one type decide on the shared board, one at the position of every scenario insect.
+         *
+         * @param type the type ordinal
+         * @return the sum of the chosen direction ordinals
+         */
+        int decide(int type) {
+            int sum = 0;
+            for (Insect insect : decidingInsects.get(type)) {
+                sum += insect.getBestDirection(sharedBoard, size).ordinal();
+            }
+            return sum;
+        }
+
+        /**
+         * Gets the number of insects in the scenario.
+         *
+         * @return the number of insects
+         */
+        int getInsectCount() {
+            return insectXs.length;
+        }
+
+        /**
+         * Builds a fresh board with insects of one type ready to travel, indexed as after a decision.
+         *
+         * @param type the type ordinal
+         */
+        void prepareTravel(int type) {
+            travelBoard = createBoard();
+            travelInsects = insectsOf(travelBoard, INSECT_TYPES[type]);
+            // A turn always decides before it travels, so the board is already indexed
+            travelInsects.get(0).getBestDirection(travelBoard, size);
+        }
+
+        /**
+         * Lets every prepared insect travel, cycling through its first directions.
+         *
+         * @param directionCount the number of directions to cycle through
+         * @return the total food eaten
+         */
+        int travel(int directionCount) {
+            Direction[] directions = Direction.values();
+            int eaten = 0;
+            for (int i = 0; i < travelInsects.size(); ++i) {
+                eaten += travelInsects.get(i).travelDirection(directions[i % directionCount], travelBoard, size);
+            }
+            return eaten;
+        }
+
+        /**
+         * Makes random results of eliminated insects from a generator with the given seed.
+         *
+         * @param seed the seed
+         * @param count the number of results
+         */
+        void prepareResults(long seed, int count) {
+            Random random = new Random(seed);
+            results = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                results.add(new EliminatedInsect(COLORS[random.nextInt(COLORS.length)],
+                        INSECT_TYPES[random.nextInt(INSECT_TYPES.length)],
+                        Direction.values()[random.nextInt(Direction.values().length)], random.nextInt(size * 10)));
+            }
+        }
+
+        /**
+         * Writes the prepared results as text.
+         *
+         * @param output the writer to write to
+         * @return the number of results written
+         * @throws IOException if writing fails
+         */
+        int writeTextResults(Writer output) throws IOException {
+            for (EliminatedInsect result : results) {
+                output.write(result.getInsectResultString() + '\n');
+            }
+            return results.size();
+        }
+
+        /**
+         * Encodes the prepared results in the binary format.
+         *
+         * @return the encoded results
+         */
+        byte[] encodeResults() {
+            return BinaryResults.encode(results);
+        }
+
+        /**
+         * Builds the board summing rays with one strategy, once.
+         *
+         * @param strategy the strategy ordinal
+         */
+        void prepareRays(int strategy) {
+            if (rayBoards[strategy] == null) {
+                Board board = createBoard();
+                board.setRayStrategy(RayStrategy.values()[strategy]);
+                board.prepareRays();
+                rayBoards[strategy] = board;
+            }
+        }
+
+        /**
+         * Sums the food visible north, east, south and west of every probe.
+         *
+         * @param strategy the strategy ordinal
+         * @param probes the x- and y-coordinates of the probes, interleaved
+         * @return the total food seen
+         */
+        int sumOrthogonalRays(int strategy, int[] probes) {
+            int sum = 0;
+            for (int i = 0; i < probes.length; i += 2) {
+                for (Direction dir : ORTHOGONAL_DIRECTIONS) {
+                    sum += rayBoards[strategy].getVisibleFoodValue(probes[i], probes[i + 1], dir, 1, size);
+                }
+            }
+            return sum;
+        }
+    }
+}
+
+/**
+ * Limits and storage options of a simulation.
+ * The defaults are the limits of the original game.
+ */
+class SimulationConfig {
+    public static final int DEFAULT_MAX_BOARD_SIZE = 1000;
+    public static final int DEFAULT_MAX_INSECT_NUMBER = 16;
+    public static final int DEFAULT_MAX_FOOD_NUMBER = 200;
+
+    private int maxBoardSize = DEFAULT_MAX_BOARD_SIZE;
+    private int maxInsectNumber = DEFAULT_MAX_INSECT_NUMBER;
+    private int maxFoodNumber = DEFAULT_MAX_FOOD_NUMBER;
+    private StorageMode storageMode = StorageMode.OBJECTS;
+    private RayStrategy rayStrategy = RayStrategy.INDEX;
+    private OutputFormat outputFormat = OutputFormat.TEXT;
+    private File offHeapDirectory = new File(System.getProperty("java.io.tmpdir"));
+    private ResultCache resultCache = null;
+    private boolean parallelDecisions = false;
+    private int foodRunSize = 0;
+
+    /**
+     * Creates a configuration from the system properties gameboard.maxBoardSize, gameboard.maxInsects,
+     * gameboard.maxFood, gameboard.storage (objects, compact or offheap), gameboard.offHeapDir,
+     * gameboard.rays (index, grid or walk) and gameboard.output (text or binary), using defaults for missing ones.
+     * A positive gameboard.cacheSize enables a result cache holding that many characters of output,
+     * persisted to gameboard.cacheDir if it is set.
+     * gameboard.parallelDecisions set to true makes the decisions of all insects in parallel.
+     * A positive gameboard.foodRunSize reads food through a FoodSpill sorting runs of that many food points.
+     *
+     * @return the new configuration
+     */
+    public static SimulationConfig fromSystemProperties() {
+        SimulationConfig config = new SimulationConfig();
+        config.setMaxBoardSize(Integer.getInteger("gameboard.maxBoardSize", DEFAULT_MAX_BOARD_SIZE));
+        config.setMaxInsectNumber(Integer.getInteger("gameboard.maxInsects", DEFAULT_MAX_INSECT_NUMBER));
+        config.setMaxFoodNumber(Integer.getInteger("gameboard.maxFood", DEFAULT_MAX_FOOD_NUMBER));
+        config.setStorageMode(StorageMode.fromName(System.getProperty("gameboard.storage", "objects")));
+        config.setOffHeapDirectory(new File(System.getProperty("gameboard.offHeapDir",
+                config.getOffHeapDirectory().getPath())));
+        config.setRayStrategy(RayStrategy.fromName(System.getProperty("gameboard.rays", "index")));
+        config.setOutputFormat(OutputFormat.fromName(System.getProperty("gameboard.output", "text")));
+        long cacheSize = Long.getLong("gameboard.cacheSize", 0);
+        if (cacheSize > 0) {
+            String cacheDirectory = System.getProperty("gameboard.cacheDir");
+            File directory = cacheDirectory == null ? null : new File(cacheDirectory);
+            config.setResultCache(new ResultCache(cacheSize, directory));
+        }
+        config.setParallelDecisions(Boolean.getBoolean("gameboard.parallelDecisions"));
+        config.setFoodRunSize(Integer.getInteger("gameboard.foodRunSize", 0));
+        return config;
+    }
+
+    /**
+     * Gets the largest allowed board size.
+     *
+     * @return the maximum board size
+     */
+    public int getMaxBoardSize() {
+        return maxBoardSize;
+    }
+
+    /**
+     * Sets the largest allowed board size.
+     *
+     * @param maxBoardSize the maximum board size
+     */
+    public void setMaxBoardSize(int maxBoardSize) {
+        this.maxBoardSize = maxBoardSize;
+    }
+
+    /**
+     * Gets the largest allowed number of insects.
+     *
+     * @return the maximum number of insects
+     */
+    public int getMaxInsectNumber() {
+        return maxInsectNumber;
+    }
+
+    /**
+     * Sets the largest allowed number of insects.
+     *
+     * @param maxInsectNumber the maximum number of insects
+     */
+    public void setMaxInsectNumber(int maxInsectNumber) {
+        this.maxInsectNumber = maxInsectNumber;
+    }
+
+    /**
+     * Gets the largest allowed number of food points.
+     *
+     * @return the maximum number of food points
+     */
+    public int getMaxFoodNumber() {
+        return maxFoodNumber;
+    }
+
+    /**
+     * Sets the largest allowed number of food points.
+     *
+     * @param maxFoodNumber the maximum number of food points
+     */
+    public void setMaxFoodNumber(int maxFoodNumber) {
+        this.maxFoodNumber = maxFoodNumber;
+    }
+
+    /**
+     * Gets how boards store their entities.
+     *
+     * @return the storage mode
+     */
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    /**
+     * Sets how boards store their entities.
+     *
+     * @param storageMode the storage mode
+     */
+    public void setStorageMode(StorageMode storageMode) {
+        this.storageMode = storageMode;
+    }
+
+    /**
+     * Gets how boards sum the visible food on rays.
+     *
+     * @return the ray strategy
+     */
+    public RayStrategy getRayStrategy() {
+        return rayStrategy;
+    }
+
+    /**
+     * Sets how boards sum the visible food on rays.
+     * Off-heap boards always walk their rays.
+     *
+     * @param rayStrategy the ray strategy
+     */
+    public void setRayStrategy(RayStrategy rayStrategy) {
+        this.rayStrategy = rayStrategy;
+    }
+
+    /**
+     * Gets the format output files are written in.
+     *
+     * @return the output format
+     */
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Sets the format output files are written in.
+     * Only runs from file to file use it; results returned as text, as by the server, stay text.
+     *
+     * @param outputFormat the output format
+     */
+    public void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * Gets the directory for the memory-mapped files of off-heap boards.
+     *
+     * @return the off-heap directory
+     */
+    public File getOffHeapDirectory() {
+        return offHeapDirectory;
+    }
+
+    /**
+     * Sets the directory for the memory-mapped files of off-heap boards.
+     *
+     * @param offHeapDirectory the off-heap directory
+     */
+    public void setOffHeapDirectory(File offHeapDirectory) {
+        this.offHeapDirectory = offHeapDirectory;
+    }
+
+    /**
+     * Gets the cache shared by the simulations using this configuration.
+     *
+     * @return the result cache, or null if results are not cached
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Sets the cache shared by the simulations using this configuration.
+     *
+     * @param resultCache the result cache, or null to disable caching
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Gets whether the insects decide in parallel before the turns are played.
+     *
+     * @return true if the decisions are made in parallel
+     */
+    public boolean isParallelDecisions() {
+        return parallelDecisions;
+    }
+
+    /**
+     * Sets whether the insects decide in parallel before the turns are played.
+     *
+     * @param parallelDecisions true to make the decisions in parallel
+     */
+    public void setParallelDecisions(boolean parallelDecisions) {
+        this.parallelDecisions = parallelDecisions;
+    }
+
+    /**
+     * Gets the number of food points sorted in memory before they are spilled to the off-heap directory.
+     *
+     * @return the run size, or 0 if food is added to the board as it is read
+     */
+    public int getFoodRunSize() {
+        return foodRunSize;
+    }
+
+    /**
+     * Sets the number of food points sorted in memory before they are spilled to the off-heap directory.
+     * Together with off-heap storage, this keeps food lists larger than the heap off it while loading.
+     *
+     * @param foodRunSize the run size, or 0 to add food to the board as it is read
+     */
+    public void setFoodRunSize(int foodRunSize) {
+        this.foodRunSize = foodRunSize;
+    }
+}
+
+/**
+ * Cache of simulation outputs, keyed by a digest of the scenario tokens and of the limits
+ * they are checked against.
+ * Tokens are digested in canonical form, so scenarios that differ only in whitespace, letter case
+ * or integer spelling share an entry. The least recently used outputs are evicted once the cached
+ * outputs exceed the capacity in characters. With a directory, every output is also stored in a file
+ * named after its key and found there after a restart.
+ */
+class ResultCache {
+    // To be raised whenever the results or the key format change, so persisted outputs are not reused
+    private static final int KEY_VERSION = 1;
+
+    private final long capacity;
+    private final File directory;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a new empty ResultCache.
+     *
+     * @param capacity the number of output characters kept in memory
+     * @param directory the directory to persist outputs to, or null to keep them in memory only
+     */
+    public ResultCache(long capacity, File directory) {
+        this.capacity = capacity;
+        this.directory = directory;
+        if (directory != null) {
+            directory.mkdirs();
+        }
+    }
+
+    /**
+     * Computes the key of a scenario file.
+     *
+     * @param inputFile the scenario file
+     * @param config the configuration the scenario is simulated with
+     * @return the key, or null if the file cannot be read
+     */
+    public String keyOf(File inputFile, SimulationConfig config) {
+        try (ScenarioTokenizer input = new ScenarioTokenizer(inputFile)) {
+            return keyOf(input, config);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Computes the key of a scenario held in memory.
+     *
+     * @param scenario the scenario, in the format of an input file
+     * @param config the configuration the scenario is simulated with
+     * @return the key
+     */
+    public String keyOf(byte[] scenario, SimulationConfig config) {
+        try (ScenarioTokenizer input = new ScenarioTokenizer(scenario)) {
+            return keyOf(input, config);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Computes the key of the scenario read by a tokenizer.
+     *
+     * @param input the tokenizer to read the scenario from
+     * @param config the configuration the scenario is simulated with
+     * @return the key
+     * @throws IOException if reading fails
+     */
+    private static String keyOf(ScenarioTokenizer input, SimulationConfig config) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        // Storage modes give the same results, so only the key version and the limits are part of the key
+        digest.update(ByteBuffer.allocate(4 * Integer.BYTES).putInt(KEY_VERSION).putInt(config.getMaxBoardSize())
+                .putInt(config.getMaxInsectNumber()).putInt(config.getMaxFoodNumber()).array());
+        while (input.hasNextToken()) {
+            input.digestNextToken(digest);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Gets the cached output of a scenario, looking in the directory if it is not in memory.
+     *
+     * @param key the key of the scenario
+     * @return the output, or null if the scenario is not cached
+     */
+    public String get(String key) {
+        synchronized (this) {
+            String output = entries.get(key);
+            if (output != null) {
+                hits += 1;
+                return output;
+            }
+        }
+        String storedOutput = directory == null ? null : readStored(key);
+        synchronized (this) {
+            if (storedOutput == null) {
+                misses += 1;
+            } else {
+                hits += 1;
+                insert(key, storedOutput);
+            }
+        }
+        return storedOutput;
+    }
+
+    /**
+     * Caches the output of a scenario.
+     *
+     * @param key the key of the scenario
+     * @param output the output
+     */
+    public void put(String key, String output) {
+        synchronized (this) {
+            insert(key, output);
+        }
+        if (directory == null) {
+            return;
+        }
+        try {
+            // Written aside and moved into place, so a reader never sees a partial file
+            File temporaryFile = File.createTempFile(key, ".tmp", directory);
+            Files.writeString(temporaryFile.toPath(), output, StandardCharsets.UTF_8);
+            Files.move(temporaryFile.toPath(), new File(directory, key + ".txt").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Reads a persisted output.
+     *
+     * @param key the key of the scenario
+     * @return the output, or null if it was not persisted
+     */
+    private String readStored(String key) {
+        File file = new File(directory, key + ".txt");
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds an output to memory and evicts the least recently used ones beyond the capacity.
+     * Must be called while holding the lock of the cache.
+     *
+     * @param key the key of the scenario
+     * @param output the output
+     */
+    private void insert(String key, String output) {
+        String previous = entries.put(key, output);
+        size += output.length() - (previous == null ? 0 : previous.length());
+        Iterator<Map.Entry<String, String>> eldest = entries.entrySet().iterator();
+        while (size > capacity && eldest.hasNext()) {
+            size -= eldest.next().getValue().length();
+            eldest.remove();
+            evictions += 1;
+        }
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups not answered from the cache.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of outputs evicted from memory.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Describes the cache statistics in one line.
+     *
+     * @return the statistics
+     */
+    public synchronized String describe() {
+        long lookups = hits + misses;
+        return String.format("Result cache: %d hits, %d misses (%.1f%% hit rate), %d entries, %d evictions",
+                hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, entries.size(), evictions);
+    }
+}
+
+/**
+ * Counters of the hot paths and of the time spent in each phase of the simulations, shared by the process.
+ * The counters are striped, so threads running simulations side by side do not contend on them.
+ * While disabled, recording costs a single flag check.
+ */
+class SimulationMetrics implements SimulationMetricsMBean {
+    public static final String OBJECT_NAME = "GameBoard:type=SimulationMetrics";
+    public static final SimulationMetrics INSTANCE = new SimulationMetrics();
+
+    /**
+     * Phases of a simulation that are timed.
+     */
+    enum Phase {
+        PARSE, VALIDATE, DECIDE, TRAVEL, WRITE
+    }
+
+    private volatile boolean enabled = false;
+    private final LongAdder rays = new LongAdder();
+    private final LongAdder cellsScanned = new LongAdder();
+    private final LongAdder entityLookups = new LongAdder();
+    private final LongAdder foodRemoved = new LongAdder();
+    private final LongAdder insectsBlocked = new LongAdder();
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+
+    /**
+     * Creates a new set of counters, all zero and disabled.
+     */
+    private SimulationMetrics() {
+        for (int i = 0; i < phaseNanos.length; ++i) {
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers the counters with the platform MBean server, unless they are already registered.
+     *
+     * @throws JMException if the registration fails
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new StandardMBean(this, SimulationMetricsMBean.class), name);
+        }
+    }
+
+    /**
+     * Checks if the counters are being updated.
+     *
+     * @return true if the counters are updated
+     */
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the counting on or off.
+     *
+     * @param enabled true to update the counters
+     */
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    @Override
+    public void reset() {
+        rays.reset();
+        cellsScanned.reset();
+        entityLookups.reset();
+        foodRemoved.reset();
+        insectsBlocked.reset();
+        for (LongAdder nanos : phaseNanos) {
+            nanos.reset();
+        }
+    }
+
+    /**
+     * Records a ray that was followed.
+     *
+     * @param cells the number of cells looked up on the ray
+     */
+    public void addRay(int cells) {
+        if (enabled) {
+            rays.increment();
+            cellsScanned.add(cells);
+        }
+    }
+
+    /**
+     * Records a call to Board.getEntity.
+     */
+    public void addEntityLookup() {
+        if (enabled) {
+            entityLookups.increment();
+        }
+    }
+
+    /**
+     * Records a food point removed from a board.
+     */
+    public void addFoodRemoved() {
+        if (enabled) {
+            foodRemoved.increment();
+        }
+    }
+
+    /**
+     * Records a travel stopped by an insect of another color.
+     */
+    public void addInsectBlocked() {
+        if (enabled) {
+            insectsBlocked.increment();
+        }
+    }
+
+    /**
+     * Starts timing a phase.
+     *
+     * @return the start time to pass to stopTimer, or 0 if the counters are disabled
+     */
+    public long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds the time elapsed since startTimer to a phase.
+     *
+     * @param phase the timed phase
+     * @param start the value returned by startTimer
+     */
+    public void stopTimer(Phase phase, long start) {
+        if (start != 0) {
+            phaseNanos[phase.ordinal()].add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Gets the number of rays looked along or travelled.
+     *
+     * @return the number of rays
+     */
+    @Override
+    public long getRays() {
+        return rays.sum();
+    }
+
+    /**
+     * Gets the number of cells looked up while following rays.
+     *
+     * @return the number of scanned cells
+     */
+    @Override
+    public long getCellsScanned() {
+        return cellsScanned.sum();
+    }
+
+    /**
+     * Gets the mean number of cells looked up per ray.
+     *
+     * @return the scanned cells per ray, or 0 if no ray was followed
+     */
+    @Override
+    public double getCellsScannedPerRay() {
+        long rayCount = rays.sum();
+        return rayCount == 0 ? 0.0 : (double) cellsScanned.sum() / rayCount;
+    }
+
+    /**
+     * Gets the number of calls to Board.getEntity.
+     *
+     * @return the number of entity lookups
+     */
+    @Override
+    public long getEntityLookups() {
+        return entityLookups.sum();
+    }
+
+    /**
+     * Gets the number of food points removed from boards.
+     *
+     * @return the number of removed food points
+     */
+    @Override
+    public long getFoodRemoved() {
+        return foodRemoved.sum();
+    }
+
+    /**
+     * Gets the number of travels stopped by an insect of another color.
+     *
+     * @return the number of blocked insects
+     */
+    @Override
+    public long getInsectsBlocked() {
+        return insectsBlocked.sum();
+    }
+
+    /**
+     * Gets the time spent reading scenarios.
+     *
+     * @return the parsing time in nanoseconds
+     */
+    @Override
+    public long getParseNanos() {
+        return phaseNanos[Phase.PARSE.ordinal()].sum();
+    }
+
+    /**
+     * Gets the time spent on the checks made once a scenario is read.
+     *
+     * @return the validation time in nanoseconds
+     */
+    @Override
+    public long getValidateNanos() {
+        return phaseNanos[Phase.VALIDATE.ordinal()].sum();
+    }
+
+    /**
+     * Gets the time spent choosing directions.
+     *
+     * @return the decision time in nanoseconds
+     */
+    @Override
+    public long getDecideNanos() {
+        return phaseNanos[Phase.DECIDE.ordinal()].sum();
+    }
+
+    /**
+     * Gets the time spent moving insects and removing them.
+     *
+     * @return the travel time in nanoseconds
+     */
+    @Override
+    public long getTravelNanos() {
+        return phaseNanos[Phase.TRAVEL.ordinal()].sum();
+    }
+
+    /**
+     * Gets the time spent writing results.
+     *
+     * @return the writing time in nanoseconds
+     */
+    @Override
+    public long getWriteNanos() {
+        return phaseNanos[Phase.WRITE.ordinal()].sum();
+    }
+}
+
+/**
+ * Runs many scenario files through independent simulations on a fork-join pool.
+ */
+class BatchRunner {
+    private static final int PIPELINE_DEPTH = 4;
+    private static final int IO_THREADS = 16;
+
+    private final List<File> inputFiles = new ArrayList<>();
+    private final List<File> outputFiles = new ArrayList<>();
+    private final SimulationConfig config;
+
+    /**
+     * Creates a new BatchRunner.
+     * A directory source takes every file in it, in name order; the output keeps the scenario file name.
+     * A manifest source lists one scenario per line, optionally followed by its output file.
+     * Relative paths in a manifest are resolved against the manifest directory.
+     *
+     * @param source the scenario directory or manifest file
+     * @param outputDirectory the directory for output files without an explicit path
+     * @param config the configuration of every simulation
+     * @throws IOException if the source cannot be read
+     */
+    public BatchRunner(File source, File outputDirectory, SimulationConfig config) throws IOException {
+        this.config = config;
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Cannot create output directory " + outputDirectory);
+        }
+        if (source.isDirectory()) {
+            File[] files = source.listFiles(File::isFile);
+            if (files == null) {
+                throw new IOException("Cannot list scenario directory " + source);
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                inputFiles.add(file);
+                outputFiles.add(new File(outputDirectory, file.getName()));
+            }
+            return;
+        }
+        File baseDirectory = source.getAbsoluteFile().getParentFile();
+        for (String line : Files.readAllLines(source.toPath())) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts[0].isEmpty()) {
+                continue;
+            }
+            File inputFile = resolve(baseDirectory, parts[0]);
+            File outputFile = parts.length > 1 ? resolve(baseDirectory, parts[1])
+                    : new File(outputDirectory, inputFile.getName());
+            File outputParent = outputFile.getParentFile();
+            if (!outputParent.isDirectory() && !outputParent.mkdirs()) {
+                throw new IOException("Cannot create output directory " + outputParent);
+            }
+            inputFiles.add(inputFile);
+            outputFiles.add(outputFile);
+        }
+    }
+
+    /**
+     * Resolves a manifest path against the manifest directory.
+     *
+     * @param baseDirectory the manifest directory
+     * @param path the path from the manifest
+     * @return the resolved file
+     */
+    private static File resolve(File baseDirectory, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(baseDirectory, path);
+    }
+
+    /**
+     * Simulates all scenarios and reports the throughput to standard output.
+     *
+     * @param parallelism the number of worker threads
+     */
+    public void run(int parallelism) {
+        AtomicInteger failed = new AtomicInteger();
+        long startTime = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, inputFiles.size()).parallel().forEach(i -> {
+                try {
+                    new GameBoard(config).run(inputFiles.get(i), outputFiles.get(i));
+                } catch (RuntimeException ex) {
+                    failed.incrementAndGet();
+                    System.err.println("Scenario " + inputFiles.get(i) + " failed: " + ex);
+                }
+            })).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            System.err.println("Batch failed: " + ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        report(startTime, failed.get());
+    }
+
+    /**
+     * Simulates all scenarios in a pipeline and reports the throughput to standard output.
+     * Inputs are read and outputs written on I/O threads, so waiting for storage overlaps with simulations
+     * running on a pool of parallelism threads. At most PIPELINE_DEPTH scenarios per simulation thread
+     * are between reading and writing at a time, which bounds the memory held by the pipeline.
+     * The I/O threads are virtual threads when the runtime provides them.
+     * Outputs are written in the configured format, as run writes them.
+     *
+     * @param parallelism the number of simulation threads
+     */
+    public void runPipelined(int parallelism) {
+        AtomicInteger failed = new AtomicInteger();
+        long startTime = System.nanoTime();
+        int maxInFlight = parallelism * PIPELINE_DEPTH;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ExecutorService ioExecutor = newIoExecutor();
+        ExecutorService cpuExecutor = Executors.newFixedThreadPool(parallelism);
+        try {
+            for (int i = 0; i < inputFiles.size(); ++i) {
+                File inputFile = inputFiles.get(i);
+                File outputFile = outputFiles.get(i);
+                inFlight.acquire();
+                CompletableFuture.supplyAsync(() -> readScenario(inputFile), ioExecutor)
+                        .handleAsync(this::simulate, cpuExecutor)
+                        .thenAcceptAsync(output -> GameBoard.writeBytes(outputFile, output), ioExecutor)
+                        .whenComplete((result, ex) -> {
+                            if (ex != null) {
+                                failed.incrementAndGet();
+                                System.err.println("Scenario " + inputFile + " failed: " + ex.getCause());
+                            }
+                            inFlight.release();
+                        });
+            }
+            // Every scenario gives its permit back once its output is written
+            inFlight.acquire(maxInFlight);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ioExecutor.shutdown();
+            cpuExecutor.shutdown();
+        }
+        report(startTime, failed.get());
+    }
+
+    /**
+     * Reads a scenario file into memory.
+     *
+     * @param inputFile the scenario file
+     * @return the contents of the file
+     */
+    private static byte[] readScenario(File inputFile) {
+        // Opened the way GameBoard.run opens it, so a missing file gives the same message
+        try (FileInputStream input = new FileInputStream(inputFile)) {
+            return input.readAllBytes();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Simulates a scenario read into memory, or gives the error message of a scenario that could not be read.
+     *
+     * @param scenario the contents of the scenario file, or null if reading failed
+     * @param readFailure the failure of reading, or null if reading succeeded
+     * @return the output for the scenario, encoded as it is to be written
+     */
+    private byte[] simulate(byte[] scenario, Throwable readFailure) {
+        boolean binary = config.getOutputFormat() == OutputFormat.BINARY;
+        if (readFailure == null) {
+            // Binary outputs are not cached, as in GameBoard.run
+            return binary ? new GameBoard(config).simulateBinary(scenario)
+                    : new GameBoard(config).run(scenario).getBytes(Charset.defaultCharset());
+        }
+        // As in GameBoard.run, a file that cannot be read gets the message of the failure as its output
+        if (readFailure.getCause() instanceof UncheckedIOException ex) {
+            String message = ex.getCause().getMessage();
+            return binary ? BinaryResults.encodeError(message) : message.getBytes(Charset.defaultCharset());
+        }
+        throw new CompletionException(readFailure.getCause());
+    }
+
+    /**
+     * Creates the executor for pipeline I/O: a virtual thread per task where the runtime supports it,
+     * otherwise a fixed pool of IO_THREADS platform threads.
+     *
+     * @return the I/O executor
+     */
+    private static ExecutorService newIoExecutor() {
+        try {
+            // Looked up reflectively, so the runner still compiles and runs on runtimes without virtual threads
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return Executors.newFixedThreadPool(IO_THREADS);
+        }
+    }
+
+    /**
+     * Prints the number of simulated scenarios, the throughput and the cache statistics.
+     *
+     * @param startTime the System.nanoTime at which the batch started
+     * @param failed the number of failed scenarios
+     */
+    private void report(long startTime, int failed) {
+        long elapsedNanos = System.nanoTime() - startTime;
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Simulated %d scenarios (%d failed) in %.3f s, %.1f scenarios/s%n",
+                inputFiles.size(), failed, seconds, inputFiles.size() / Math.max(seconds, 1e-9));
+        if (config.getResultCache() != null) {
+            System.out.println(config.getResultCache().describe());
+        }
+    }
+}
+
+/**
+ * Resident server that simulates scenarios sent over a Unix domain socket, so the JIT stays warm between them.
+ * A request frame is a big-endian int length followed by the scenario bytes.
+ * A response frame is an int status, the server-side latency in microseconds as a long,
+ * an int length and the output text in UTF-8: the result lines or the error message.
+ * Requests beyond the capacity of the queue are answered at once with the busy status.
+ */
+class SimulationServer {
+    static final int DEFAULT_QUEUE_CAPACITY = 64;
+    static final int STATUS_OK = 0;
+    static final int STATUS_BUSY = 1;
+    static final int STATUS_FAILED = 2;
+
+    private static final int MAX_FRAME_BYTES = 1 << 26;
+    private static final int WARMUP_RUNS = 2000;
+    private static final int REPORT_INTERVAL = 1000;
+    private static final byte[] WARMUP_SCENARIO = ("10 4 6\nRed Ant 2 2\nGreen Spider 5 5\nBlue Butterfly 7 3\n"
+            + "Yellow Grasshopper 9 9\n3 2 6\n7 5 8\n2 9 1\n4 1 1\n9 7 7\n1 10 10\n")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final Path socketPath;
+    private final SimulationConfig config;
+    private final ThreadPoolExecutor workers;
+    private final ExecutorService connections;
+    private final Semaphore connectionSlots;
+    private final Object statsLock = new Object();
+    private long reportedRequests = 0;
+    private long totalLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+
+    /**
+     * Creates a new SimulationServer.
+     *
+     * @param socketPath the path of the Unix domain socket to listen on
+     * @param config the configuration of every simulation
+     * @param workerCount the number of simulation threads
+     * @param queueCapacity the number of requests that may wait for a simulation thread
+     */
+    public SimulationServer(Path socketPath, SimulationConfig config, int workerCount, int queueCapacity) {
+        this.socketPath = socketPath;
+        this.config = config;
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(queueCapacity, 1)));
+        // A connection has one request in flight at a time, so more connections than running and queued
+        // requests would only be answered busy while holding a thread and a frame each
+        int maxConnections = workerCount + Math.max(queueCapacity, 1);
+        this.connections = Executors.newFixedThreadPool(maxConnections);
+        this.connectionSlots = new Semaphore(maxConnections);
+    }
+
+    /**
+     * Warms up the simulation and serves connections until the process is stopped.
+     * Connections beyond the number of running and queued requests the server can hold are closed at once.
+     *
+     * @throws IOException if the socket cannot be opened
+     */
+    public void serve() throws IOException {
+        warmUp();
+        Files.deleteIfExists(socketPath);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            socketPath.toFile().deleteOnExit();
+            System.out.println("Serving on " + socketPath);
+            while (true) {
+                SocketChannel client = server.accept();
+                if (!connectionSlots.tryAcquire()) {
+                    client.close();
+                    continue;
+                }
+                connections.execute(() -> {
+                    try {
+                        handle(client);
+                    } finally {
+                        connectionSlots.release();
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+            connections.shutdown();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    /**
+     * Runs a small scenario many times, so the first requests already meet compiled code.
+     */
+    private void warmUp() {
+        for (int i = 0; i < WARMUP_RUNS; ++i) {
+            // Not through the cache, which would answer every run after the first
+            new GameBoard(config).simulateBytes(WARMUP_SCENARIO);
+        }
+    }
+
+    /**
+     * Answers the requests of one connection, in order, until the client closes it.
+     *
+     * @param client the connection
+     */
+    private void handle(SocketChannel client) {
+        try (client;
+             DataInputStream input = new DataInputStream(
+                     new BufferedInputStream(Channels.newInputStream(client)));
+             DataOutputStream output = new DataOutputStream(
+                     new BufferedOutputStream(Channels.newOutputStream(client)))) {
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException ex) {
+                    return;
+                }
+                long startTime = System.nanoTime();
+                if (length < 0 || length > MAX_FRAME_BYTES) {
+                    respond(output, STATUS_FAILED, startTime, "Frame of " + length + " bytes rejected");
+                    return;
+                }
+                byte[] scenario = new byte[length];
+                input.readFully(scenario);
+                Future<String> result;
+                try {
+                    result = workers.submit(() -> new GameBoard(config).run(scenario));
+                } catch (RejectedExecutionException ex) {
+                    respond(output, STATUS_BUSY, startTime, "");
+                    continue;
+                }
+                try {
+                    respond(output, STATUS_OK, startTime, result.get());
+                } catch (ExecutionException ex) {
+                    respond(output, STATUS_FAILED, startTime, String.valueOf(ex.getCause()));
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Connection failed: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a response frame and records its latency.
+     *
+     * @param output the stream of the connection
+     * @param status the status of the request
+     * @param startTime the System.nanoTime at which the request was received
+     * @param text the output text
+     * @throws IOException if writing fails
+     */
+    private void respond(DataOutputStream output, int status, long startTime, String text) throws IOException {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        long latencyNanos = System.nanoTime() - startTime;
+        output.writeInt(status);
+        output.writeLong(latencyNanos / 1000);
+        output.writeInt(payload.length);
+        output.write(payload);
+        output.flush();
+        recordLatency(latencyNanos);
+    }
+
+    /**
+     * Adds a request latency to the statistics and prints them every REPORT_INTERVAL requests.
+     *
+     * @param latencyNanos the latency of the request
+     */
+    private void recordLatency(long latencyNanos) {
+        synchronized (statsLock) {
+            reportedRequests += 1;
+            totalLatencyNanos += latencyNanos;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+            if (reportedRequests == REPORT_INTERVAL) {
+                System.out.printf("Served %d requests: mean latency %.1f us, max %.1f us, %d queued%n",
+                        reportedRequests, totalLatencyNanos / 1e3 / reportedRequests, maxLatencyNanos / 1e3,
+                        workers.getQueue().size());
+                if (config.getResultCache() != null) {
+                    System.out.println(config.getResultCache().describe());
+                }
+                reportedRequests = 0;
+                totalLatencyNanos = 0;
+                maxLatencyNanos = 0;
+            }
+        }
+    }
+}
+
+/**
+ * Streaming tokenizer for scenario files.
+ * Reads bytes from a channel and decodes integers and keywords in place, without a String per token.
+ * Tokens are separated by whitespace as with java.util.Scanner, and malformed input raises
+ * the same exceptions as Scanner.nextInt and Scanner.next.
+ */
+class ScenarioTokenizer implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final boolean UTF8_INPUT = Charset.defaultCharset().equals(StandardCharsets.UTF_8);
+    private static final long MALFORMED_INT = Long.MIN_VALUE;
+    private static final long OVERFLOWING_INT = Long.MAX_VALUE;
+    private static final byte INT_TOKEN = 0;
+    private static final byte WORD_TOKEN = 1;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] bytes = buffer.array();
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfInput = false;
+    private byte[] token = new byte[64];
+    private final byte[] tokenHeader = new byte[5];
+    private int tokenLength = 0;
+
+    /**
+     * Creates a new ScenarioTokenizer reading from the given channel.
+     *
+     * @param channel the channel to read from
+     */
+    public ScenarioTokenizer(ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Creates a new ScenarioTokenizer reading from the given file.
+     *
+     * @param file the file to read from
+     * @throws FileNotFoundException if the file cannot be opened
+     */
+    public ScenarioTokenizer(File file) throws FileNotFoundException {
+        this(new FileInputStream(file).getChannel());
+    }
+
+    /**
+     * Creates a new ScenarioTokenizer reading from the given bytes.
+     *
+     * @param data the bytes to read from
+     */
+    public ScenarioTokenizer(byte[] data) {
+        this(Channels.newChannel(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Makes at least the given number of bytes available, unless the input ends first.
+     *
+     * @param count the number of bytes needed
+     * @return true if the bytes are available, false otherwise
+     * @throws IOException if reading fails
+     */
+    private boolean fill(int count) throws IOException {
+        if (limit - position >= count) {
+            return true;
+        }
+        System.arraycopy(bytes, position, bytes, 0, limit - position);
+        limit -= position;
+        position = 0;
+        while (limit < count && !endOfInput) {
+            buffer.limit(bytes.length).position(limit);
+            int read = channel.read(buffer);
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                limit += read;
+            }
+        }
+        return limit - position >= count;
+    }
+
+    /**
+     * Gets the length of the whitespace character at the current position.
+     *
+     * @return the length in bytes, or 0 if the current character is not whitespace
+     * @throws IOException if reading fails
+     */
+    private int whitespaceLength() throws IOException {
+        int b = bytes[position] & 0xFF;
+        if (b < 0x80) {
+            return Character.isWhitespace(b) ? 1 : 0;
+        }
+        // Scanner decodes with the default charset; in UTF-8 all other whitespace characters take three bytes
+        if (!UTF8_INPUT || b < 0xE1 || b > 0xE3 || !fill(3)) {
+            return 0;
+        }
+        int codePoint = ((b & 0x0F) << 12) | ((bytes[position + 1] & 0x3F) << 6) | (bytes[position + 2] & 0x3F);
+        return Character.isWhitespace(codePoint) ? 3 : 0;
+    }
+
+    /**
+     * Reads the next token into the token buffer.
+     *
+     * @throws IOException if reading fails
+     */
+    private void readToken() throws IOException {
+        if (!hasNextToken()) {
+            throw new NoSuchElementException();
+        }
+        tokenLength = 0;
+        while (fill(1) && whitespaceLength() == 0) {
+            if (tokenLength == token.length) {
+                token = Arrays.copyOf(token, tokenLength * 2);
+            }
+            token[tokenLength++] = bytes[position++];
+        }
+    }
+
+    /**
+     * Reads the next token as an integer.
+     *
+     * @return the integer value
+     * @throws IOException if reading fails
+     */
+    public int nextInt() throws IOException {
+        readToken();
+        long value = tokenValue();
+        if (value == MALFORMED_INT) {
+            throw new InputMismatchException();
+        }
+        if (value == OVERFLOWING_INT) {
+            throw new InputMismatchException("For input string: \"" + tokenString() + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses the current token as an integer.
+     *
+     * @return the integer value, MALFORMED_INT if the token is not an integer,
+     *     or OVERFLOWING_INT if it does not fit into an int
+     */
+    private long tokenValue() {
+        int pos = 0;
+        boolean negative = false;
+        if (token[0] == '-' || token[0] == '+') {
+            negative = token[0] == '-';
+            pos = 1;
+        }
+        if (pos == tokenLength) {
+            return MALFORMED_INT;
+        }
+        long value = 0;
+        for (; pos < tokenLength; ++pos) {
+            int digit = token[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                return MALFORMED_INT;
+            }
+            // Keep parsing after an overflow, so a malformed token still wins over an overflowing one
+            value = Math.min(value * 10 + digit, Integer.MAX_VALUE + 2L);
+        }
+        if (negative ? -value < Integer.MIN_VALUE : value > Integer.MAX_VALUE) {
+            return OVERFLOWING_INT;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Skips whitespace and checks if another token follows.
+     *
+     * @return true if the input has another token, false otherwise
+     * @throws IOException if reading fails
+     */
+    public boolean hasNextToken() throws IOException {
+        while (fill(1)) {
+            int length = whitespaceLength();
+            if (length == 0) {
+                return true;
+            }
+            position += length;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next token and adds its canonical form to a digest.
+     * Tokens the parser cannot tell apart give the same bytes: integers are added by value,
+     * and other tokens with their ASCII letters in lower case.
+     *
+     * @param digest the digest to update
+     * @throws IOException if reading fails
+     */
+    public void digestNextToken(MessageDigest digest) throws IOException {
+        readToken();
+        long value = tokenValue();
+        boolean isInt = value != MALFORMED_INT && value != OVERFLOWING_INT;
+        int header = isInt ? (int) value : tokenLength;
+        tokenHeader[0] = isInt ? INT_TOKEN : WORD_TOKEN;
+        for (int i = 1; i < tokenHeader.length; ++i) {
+            tokenHeader[i] = (byte) (header >>> (32 - 8 * i));
+        }
+        digest.update(tokenHeader);
+        if (isInt) {
+            return;
+        }
+        // The token is consumed, so its buffer can be lowered in place
+        for (int pos = 0; pos < tokenLength; ++pos) {
+            if (token[pos] >= 'A' && token[pos] <= 'Z') {
+                token[pos] += 'a' - 'A';
+            }
+        }
+        digest.update(token, 0, tokenLength);
+    }
+
+    /**
+     * Reads the next token and matches it against the given lowercase keywords, ignoring case.
+     *
+     * @param keywords the keywords to match
+     * @return the index of the matching keyword, or -1 if none matches
+     * @throws IOException if reading fails
+     */
+    public int nextKeyword(String[] keywords) throws IOException {
+        readToken();
+        for (int i = 0; i < keywords.length; ++i) {
+            String keyword = keywords[i];
+            if (keyword.length() != tokenLength) {
+                continue;
+            }
+            int pos = 0;
+            while (pos < tokenLength && Character.toLowerCase(token[pos]) == keyword.charAt(pos)) {
+                pos += 1;
+            }
+            if (pos == tokenLength) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes the current token into a String, for error messages only.
+     *
+     * @return the current token
+     */
+    private String tokenString() {
+        return new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+// Exceptions
+
+/**
+ * Exception thrown when board size is outside valid range.
+ */
+class InvalidBoardSizeException extends Exception {
+    public InvalidBoardSizeException() {
+        super("Invalid board size");
+    }
+
+    @Override
+    public String getMessage() {
+        return super.getMessage();
+    }
+}
+
+/**
+ * Exception thrown when number of insects is outside valid range.
+ */
+class InvalidNumberOfInsectsException extends Exception {
+    public InvalidNumberOfInsectsException() {
+        super("Invalid number of insects");
+    }
+
+    @Override
+    public String getMessage() {
+        return super.getMessage();
+    }
+}
+
+/**
+ * Exception thrown when number of food points is outside valid range.
+ */
+class InvalidNumberOfFoodPointsException extends Exception {
+    public InvalidNumberOfFoodPointsException() {
+        super("Invalid number of food points");
+    }
+
+    @Override
+    public String getMessage() {
+        return super.getMessage();
+    }
+}
+
+/**
+ * Exception thrown when insect color is invalid.
+ */
+class InvalidInsectColorException extends Exception {
+    public InvalidInsectColorException() {
+        super("Invalid insect color");
+    }
+
+    @Override
+    public String getMessage() {
+        return super.getMessage();
+    }
+}
+
+/**
+ * Exception thrown when insect type is invalid.
+ */
+class InvalidInsectTypeException extends Exception {
+    public InvalidInsectTypeException() {
+        super("Invalid insect type");
+    }
+
+    @Override
+    public String getMessage() {
+        return super.getMessage();
+    }
+}
+
+/**
+ * Exception thrown when entity position is outside board boundaries.
+ */
+class InvalidEntityPositionException extends Exception {
+    public InvalidEntityPositionException() {
+        super("Invalid entity position");
+    }
+
+    @Override
+    public String getMessage() {
+        return super.getMessage();
+    }
+}
+
+/**
+ * Exception thrown when duplicate insects (same type and color) are found.
+ */
+class DuplicateInsectException extends Exception {
+    public DuplicateInsectException() {
+        super("Duplicate insects");
+    }
+
+    @Override
+    public String getMessage() {
+        return super.getMessage();
+    }
+}
+
+/**
+ * Exception thrown when two entities occupy the same position.
+ */
+class TwoEntitiesOnSamePositionException extends Exception {
+    public TwoEntitiesOnSamePositionException() {
+        super("Two entities in the same position");
+    }
+
+    @Override
+    public String getMessage() {
+        return super.getMessage();
+    }
+}
+
+// Enums
+
+/**
+ * Represents the possible colors of insects.
+ */
+enum InsectColor {
+    RED,
+    GREEN,
+    BLUE,
+    YELLOW,
+    NONE;
+
+    /**
+     * Converts a string to the corresponding InsectColor.
+     *
+     * @param s the string to convert
+     * @return the corresponding InsectColor, or NONE if no match found
+     */
+    public static InsectColor toColor(String s) {
+        s = s.toLowerCase();
+        return switch (s) {
+            case "red" -> RED;
+            case "green" -> GREEN;
+            case "blue" -> BLUE;
+            case "yellow" -> YELLOW;
+            default -> NONE;
+        };
+    }
+
+    /**
+     * Gets the name of the color as it appears in the results.
+     *
+     * @return the color name
+     */
+    public String getDisplayName() {
+        return switch (this) {
+            case BLUE -> "Blue";
+            case RED -> "Red";
+            case GREEN -> "Green";
+            case YELLOW -> "Yellow";
+            default -> throw new RuntimeException("color did not defined");
+        };
+    }
+}
+
+/**
+ * Represents the possible movement directions for insects.
+ */
+enum Direction {
+    N("North", 0, -1),
+    E("East", 1, 0),
+    S("South", 0, 1),
+    W("West", -1, 0),
+    NE("North-East", 1, -1),
+    SE("South-East", 1, 1),
+    SW("South-West", -1, 1),
+    NW("North-West", -1, -1);
+
+    private final String textRepresentation;
+    private final int xBias;
+    private final int yBias;
+
+    Direction(String text, int xBias, int yBias) {
+        this.textRepresentation = text;
+        this.xBias = xBias;
+        this.yBias = yBias;
+    }
+
+    /**
+     * Moves the given entity position one step in this direction.
+     *
+     * @param entityPosition the position to move
+     */
+    public void nextStep(EntityPosition entityPosition) {
+        entityPosition.moveX(xBias);
+        entityPosition.moveY(yBias);
+    }
+
+    /**
+     * Gets the step this direction makes along the x-axis.
+     *
+     * @return the x-step (-1, 0 or 1)
+     */
+    public int getXBias() {
+        return xBias;
+    }
+
+    /**
+     * Gets the step this direction makes along the y-axis.
+     *
+     * @return the y-step (-1, 0 or 1)
+     */
+    public int getYBias() {
+        return yBias;
+    }
+
+    /**
+     * Gets the text representation of this direction.
+     *
+     * @return the text representation (e.g., "North", "South-East")
+     */
+    public String getTextRepresentation() {
+        return textRepresentation;
+    }
+}
+
+/**
+ * Represents the ways a board can store its entities.
+ */
+enum StorageMode {
+    OBJECTS,
+    COMPACT,
+    OFF_HEAP;
+
+    /**
+     * Converts a configuration value to the corresponding StorageMode.
+     *
+     * @param s the value to convert (objects, compact or offheap)
+     * @return the corresponding StorageMode, or OBJECTS if no match found
+     */
+    public static StorageMode fromName(String s) {
+        return switch (s.toLowerCase()) {
+            case "compact" -> COMPACT;
+            case "offheap" -> OFF_HEAP;
+            default -> OBJECTS;
+        };
+    }
+}
+
+/**
+ * Represents the formats results can be written in.
+ * TEXT writes one line per insect; BINARY writes the columnar records of BinaryResults.
+ */
+enum OutputFormat {
+    TEXT,
+    BINARY;
+
+    /**
+     * Converts a configuration value to the corresponding OutputFormat.
+     *
+     * @param s the value to convert (text or binary)
+     * @return the corresponding OutputFormat, or TEXT if no match found
+     */
+    public static OutputFormat fromName(String s) {
+        return s.equalsIgnoreCase("binary") ? BINARY : TEXT;
+    }
+}
+
+/**
+ * Represents the ways a board can sum the visible food on rays.
+ * INDEX keeps Fenwick trees per line, GRID keeps dense arrays of the rows and columns and walks the diagonals,
+ * and WALK looks up every cell of a ray.
+ */
+enum RayStrategy {
+    INDEX,
+    GRID,
+    WALK;
+
+    /**
+     * Converts a configuration value to the corresponding RayStrategy.
+     *
+     * @param s the value to convert (index, grid or walk)
+     * @return the corresponding RayStrategy, or INDEX if no match found
+     */
+    public static RayStrategy fromName(String s) {
+        return switch (s.toLowerCase()) {
+            case "grid" -> GRID;
+            case "walk" -> WALK;
+            default -> INDEX;
+        };
+    }
+}
+
+/**
+ * Represents the types of insects that can be placed on the board.
+ * Each type describes how its insects move: the directions they consider, in order of preference,
+ * and the stride of their steps.
+ */
+enum InsectType {
+    GRASSHOPPER("grasshopper", Grasshopper::new, 2, Direction.N, Direction.E, Direction.S, Direction.W),
+    BUTTERFLY("butterfly", Butterfly::new, 1, Direction.N, Direction.E, Direction.S, Direction.W),
+    ANT("ant", Ant::new, 1, Direction.N, Direction.E, Direction.S, Direction.W,
+            Direction.NE, Direction.SE, Direction.SW, Direction.NW),
+    SPIDER("spider", Spider::new, 1, Direction.NE, Direction.SE, Direction.SW, Direction.NW);
+
+    private final String keyword;
+    private final String displayName;
+    private final BiFunction<EntityPosition, InsectColor, Insect> factory;
+    private final int stride;
+    private final Direction[] directions;
+
+    InsectType(String keyword, BiFunction<EntityPosition, InsectColor, Insect> factory, int stride,
+               Direction... directions) {
+        this.keyword = keyword;
+        this.displayName = Character.toUpperCase(keyword.charAt(0)) + keyword.substring(1);
+        this.factory = factory;
+        this.stride = stride;
+        this.directions = directions;
+    }
+
+    /**
+     * Gets the name of the type as it appears in the results.
+     *
+     * @return the type name
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Gets the number of steps insects of this type make between two visited cells.
+     *
+     * @return the stride
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Gets the number of directions insects of this type can move in.
+     *
+     * @return the number of directions
+     */
+    public int getDirectionCount() {
+        return directions.length;
+    }
+
+    /**
+     * Gets a direction insects of this type can move in.
+     * Directions are ordered by preference, which breaks ties between equally good directions.
+     *
+     * @param i the index of the direction
+     * @return the direction
+     */
+    public Direction getDirection(int i) {
+        return directions[i];
+    }
+
+    /**
+     * Creates a new insect of this type.
+     *
+     * @param position the position of the insect
+     * @param color the color of the insect
+     * @return the new insect
+     */
+    public Insect create(EntityPosition position, InsectColor color) {
+        return factory.apply(position, color);
+    }
+
+    /**
+     * Gets the lowercase names of all insect types, in declaration order.
+     *
+     * @return the insect type names
+     */
+    public static String[] keywords() {
+        InsectType[] types = values();
+        String[] keywords = new String[types.length];
+        for (int i = 0; i < types.length; ++i) {
+            keywords[i] = types[i].keyword;
+        }
+        return keywords;
+    }
+}
+
+// Classes
+
+/**
+ * Represents a position on the game board with x and y coordinates.
+ */
+class EntityPosition {
+    private int x;
+    private int y;
+
+    /**
+     * Creates a new EntityPosition with the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     */
+    public EntityPosition(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * Gets the x-coordinate.
+     *
+     * @return the x-coordinate
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Gets the y-coordinate.
+     *
+     * @return the y-coordinate
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Moves the position along the x-axis by the given bias.
+     *
+     * @param bias the amount to move
+     */
+    public void moveX(int bias) {
+        x += bias;
+    }
+
+    /**
+     * Moves the position along the y-axis by the given bias.
+     *
+     * @param bias the amount to move
+     */
+    public void moveY(int bias) {
+        y += bias;
+    }
+
+    /**
+     * Creates a copy of this position.
+     *
+     * @return a new EntityPosition with the same coordinates
+     */
+    public EntityPosition copy() {
+        return new EntityPosition(getX(), getY());
+    }
+}
+
+/**
+ * Interface for indices from a board position to the index of the entity standing there.
+ */
+interface CellIndex {
+    /**
+     * Gets the entity index stored for the given position.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the stored index, or -1 if the position is not indexed
+     */
+    int get(int x, int y);
+
+    /**
+     * Stores the index for the given position unless the position is already indexed.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param idx the entity index
+     * @return true if the index was stored, false if the position was already taken
+     */
+    boolean putIfAbsent(int x, int y, int idx);
+
+    /**
+     * Removes the given position from the index.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     */
+    void remove(int x, int y);
+}
+
+/**
+ * Open-addressing hash map from a packed (x, y) position to an entity index.
+ * Keys are stored as primitive longs, so lookups neither box nor allocate.
+ */
+class PositionIndex implements CellIndex {
+    private static final int NO_INDEX = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values;
+    private int count = 0;
+
+    /**
+     * Creates a new empty PositionIndex.
+     */
+    public PositionIndex() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new int[INITIAL_CAPACITY];
+        Arrays.fill(values, NO_INDEX);
+    }
+
+    /**
+     * Packs the given coordinates into a single key.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the packed key
+     */
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Finds the home slot of the given key.
+     *
+     * @param key the packed key
+     * @return the slot where probing for the key starts
+     */
+    private int slotOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & (values.length - 1);
+    }
+
+    @Override
+    public int get(int x, int y) {
+        long key = pack(x, y);
+        int mask = values.length - 1;
+        for (int slot = slotOf(key); values[slot] != NO_INDEX; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return NO_INDEX;
+    }
+
+    @Override
+    public boolean putIfAbsent(int x, int y, int idx) {
+        if ((count + 1) * 2 > values.length) {
+            rehash(values.length * 2);
+        }
+        long key = pack(x, y);
+        int mask = values.length - 1;
+        int slot = slotOf(key);
+        while (values[slot] != NO_INDEX) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = idx;
+        count += 1;
+        return true;
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        long key = pack(x, y);
+        int mask = values.length - 1;
+        int slot = slotOf(key);
+        while (values[slot] != NO_INDEX && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (values[slot] == NO_INDEX) {
+            return;
+        }
+        // Shift the following entries of the probe chain back, so no tombstones are needed
+        int hole = slot;
+        for (int next = (hole + 1) & mask; values[next] != NO_INDEX; next = (next + 1) & mask) {
+            int home = slotOf(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        values[hole] = NO_INDEX;
+        count -= 1;
+    }
+
+    /**
+     * Rebuilds the table with the given capacity.
+     *
+     * @param capacity the new capacity, a power of two
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_INDEX);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; ++i) {
+            if (oldValues[i] == NO_INDEX) {
+                continue;
+            }
+            int slot = slotOf(oldKeys[i]);
+            while (values[slot] != NO_INDEX) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
+
+/**
+ * Dense grid from a board position to an entity index, covering the board and two cells around it.
+ * Positions further away, which rays never reach, fall back to a hash index.
+ */
+class GridCellIndex implements CellIndex {
+    private static final int MARGIN = 2;
+
+    private final int width;
+    private final int[] cells;
+    private final PositionIndex outside = new PositionIndex();
+
+    /**
+     * Creates a new empty GridCellIndex for a board of the given size.
+     *
+     * @param size the size of the board
+     */
+    public GridCellIndex(int size) {
+        width = size + 2 * MARGIN;
+        cells = new int[width * width];
+        Arrays.fill(cells, -1);
+    }
+
+    /**
+     * Gets the grid cell of the given position.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the cell number, or -1 if the position is outside the grid
+     */
+    private int cellOf(int x, int y) {
+        int column = x + MARGIN - 1;
+        int row = y + MARGIN - 1;
+        if (column < 0 || row < 0 || column >= width || row >= width) {
+            return -1;
+        }
+        return row * width + column;
+    }
+
+    @Override
+    public int get(int x, int y) {
+        int cell = cellOf(x, y);
+        return cell < 0 ? outside.get(x, y) : cells[cell];
+    }
+
+    @Override
+    public boolean putIfAbsent(int x, int y, int idx) {
+        int cell = cellOf(x, y);
+        if (cell < 0) {
+            return outside.putIfAbsent(x, y, idx);
+        }
+        if (cells[cell] >= 0) {
+            return false;
+        }
+        cells[cell] = idx;
+        return true;
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        int cell = cellOf(x, y);
+        if (cell < 0) {
+            outside.remove(x, y);
+        } else {
+            cells[cell] = -1;
+        }
+    }
+}
+
+/**
+ * Sums of food values along board rows, columns and both diagonals.
+ * Every line is split by the parity of its coordinate, so rays with stride 2 are answered too.
+ * Each line keeps its food sorted by coordinate with Fenwick trees over the values and over the number
+ * of visible food points, which makes ray sums, ray counts and food updates logarithmic
+ * in the food count of the line.
+ */
+class FoodRayIndex {
+    private static final int ROW = 0;
+    private static final int COLUMN = 1;
+    private static final int DIAGONAL = 2;
+    private static final int ANTI_DIAGONAL = 3;
+    static final int FAMILIES = 4;
+
+    private final int size;
+    private final int[][] offsets = new int[FAMILIES * 2][];
+    private final int[][] coordinates = new int[FAMILIES * 2][];
+    private final int[][] trees = new int[FAMILIES * 2][];
+    private final int[][] countTrees = new int[FAMILIES * 2][];
+
+    /**
+     * Builds the index over the given food points.
+     *
+     * @param size the size of the board
+     * @param xs the x-coordinates of the food points
+     * @param ys the y-coordinates of the food points
+     * @param values the food values
+     * @param visible whether each food point is visible; hidden ones are indexed with no value
+     * @param count the number of food points
+     */
+    public FoodRayIndex(int size, int[] xs, int[] ys, int[] values, boolean[] visible, int count) {
+        this.size = size;
+        for (int family = 0; family < FAMILIES; ++family) {
+            int lines = lineCount(size, family);
+            int[][] lineSizes = new int[2][lines + 1];
+            for (int i = 0; i < count; ++i) {
+                int line = lineOf(size, family, xs[i], ys[i]);
+                if (line >= 0) {
+                    lineSizes[coordinateOf(family, xs[i], ys[i]) & 1][line + 1] += 1;
+                }
+            }
+            for (int parity = 0; parity < 2; ++parity) {
+                int[] lineOffsets = lineSizes[parity];
+                for (int line = 0; line < lines; ++line) {
+                    lineOffsets[line + 1] += lineOffsets[line];
+                }
+                int set = family * 2 + parity;
+                offsets[set] = lineOffsets;
+                coordinates[set] = new int[lineOffsets[lines]];
+                trees[set] = new int[lineOffsets[lines]];
+                countTrees[set] = new int[lineOffsets[lines]];
+            }
+            // Coordinate and food point packed together, so sorting a line keeps them paired
+            long[][] entries = {new long[offsets[family * 2][lines]], new long[offsets[family * 2 + 1][lines]]};
+            int[][] filled = {new int[lines], new int[lines]};
+            for (int i = 0; i < count; ++i) {
+                int line = lineOf(size, family, xs[i], ys[i]);
+                if (line < 0) {
+                    continue;
+                }
+                int coordinate = coordinateOf(family, xs[i], ys[i]);
+                int parity = coordinate & 1;
+                int pos = offsets[family * 2 + parity][line] + filled[parity][line]++;
+                entries[parity][pos] = ((long) coordinate << 32) | i;
+            }
+            for (int parity = 0; parity < 2; ++parity) {
+                int set = family * 2 + parity;
+                for (int line = 0; line < lines; ++line) {
+                    int from = offsets[set][line];
+                    int to = offsets[set][line + 1];
+                    Arrays.sort(entries[parity], from, to);
+                    for (int i = from; i < to; ++i) {
+                        int food = (int) entries[parity][i];
+                        coordinates[set][i] = (int) (entries[parity][i] >> 32);
+                        trees[set][i] = visible[food] ? values[food] : 0;
+                        countTrees[set][i] = visible[food] ? 1 : 0;
+                    }
+                    for (int i = 1; i <= to - from; ++i) {
+                        int parent = i + (i & -i);
+                        if (parent <= to - from) {
+                            trees[set][from + parent - 1] += trees[set][from + i - 1];
+                            countTrees[set][from + parent - 1] += countTrees[set][from + i - 1];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the family of lines that a direction moves along.
+     *
+     * @param xBias the x-step of the direction
+     * @param yBias the y-step of the direction
+     * @return the line family
+     */
+    static int familyOf(int xBias, int yBias) {
+        if (xBias == 0) {
+            return COLUMN;
+        }
+        if (yBias == 0) {
+            return ROW;
+        }
+        return xBias == yBias ? DIAGONAL : ANTI_DIAGONAL;
+    }
+
+    /**
+     * Gets the number of lines of the given family that cross the board.
+     *
+     * @param size the size of the board
+     * @param family the line family
+     * @return the number of lines
+     */
+    static int lineCount(int size, int family) {
+        return family == ROW || family == COLUMN ? size : 2 * size - 1;
+    }
+
+    /**
+     * Gets the line of the given family passing through a cell.
+     *
+     * @param size the size of the board
+     * @param family the line family
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the line number, or -1 if the line does not cross the board
+     */
+    static int lineOf(int size, int family, int x, int y) {
+        int line = switch (family) {
+            case ROW -> y - 1;
+            case COLUMN -> x - 1;
+            case DIAGONAL -> x - y + size - 1;
+            default -> x + y - 2;
+        };
+        return line < 0 || line >= lineCount(size, family) ? -1 : line;
+    }
+
+    /**
+     * Gets the coordinate of a cell along a line of the given family.
+     *
+     * @param family the line family
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the coordinate along the line
+     */
+    static int coordinateOf(int family, int x, int y) {
+        return family == COLUMN ? y : x;
+    }
+
+    /**
+     * Adds deltas to the food value and to the number of visible food points stored at a cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param delta the value to add
+     * @param countDelta the number of visible food points to add
+     */
+    public void add(int x, int y, int delta, int countDelta) {
+        for (int family = 0; family < FAMILIES; ++family) {
+            int line = lineOf(size, family, x, y);
+            if (line < 0) {
+                continue;
+            }
+            int coordinate = coordinateOf(family, x, y);
+            int set = family * 2 + (coordinate & 1);
+            int from = offsets[set][line];
+            int to = offsets[set][line + 1];
+            int pos = Arrays.binarySearch(coordinates[set], from, to, coordinate);
+            if (pos < 0) {
+                continue;
+            }
+            for (int i = pos - from + 1; i <= to - from; i += i & -i) {
+                trees[set][from + i - 1] += delta;
+                countTrees[set][from + i - 1] += countDelta;
+            }
+        }
+    }
+
+    /**
+     * Calculates the food value on a ray, walking the way an insect does:
+     * from the cell after the start up to and including the first cell outside the board.
+     * The ray is recorded in the metrics with the number of tree nodes read as its scanned cells.
+     *
+     * @param x the x-coordinate of the start
+     * @param y the y-coordinate of the start
+     * @param xBias the x-step of the ray
+     * @param yBias the y-step of the ray
+     * @param stride the number of steps made between two visited cells, 1 or 2
+     * @return the total food value on the ray
+     */
+    public int sum(int x, int y, int xBias, int yBias, int stride) {
+        if (SimulationMetrics.INSTANCE.isEnabled()) {
+            SimulationMetrics.INSTANCE.addRay(rayTotal(trees, x, y, xBias, yBias, stride, true));
+        }
+        return rayTotal(trees, x, y, xBias, yBias, stride, false);
+    }
+
+    /**
+     * Counts the visible food points on a ray, walking the way an insect does.
+     *
+     * @param x the x-coordinate of the start
+     * @param y the y-coordinate of the start
+     * @param xBias the x-step of the ray
+     * @param yBias the y-step of the ray
+     * @param stride the number of steps made between two visited cells, 1 or 2
+     * @return the number of visible food points on the ray
+     */
+    public int count(int x, int y, int xBias, int yBias, int stride) {
+        return rayTotal(countTrees, x, y, xBias, yBias, stride, false);
+    }
+
+    /**
+     * Totals one kind of Fenwick tree over the cells of a ray, or counts the tree nodes the total reads.
+     *
+     * @param tree the Fenwick trees of every family and parity
+     * @param x the x-coordinate of the start
+     * @param y the y-coordinate of the start
+     * @param xBias the x-step of the ray
+     * @param yBias the y-step of the ray
+     * @param stride the number of steps made between two visited cells, 1 or 2
+     * @param nodes true to count the tree nodes read instead of totalling them
+     * @return the total over the ray, or the number of tree nodes read
+     */
+    private int rayTotal(int[][] tree, int x, int y, int xBias, int yBias, int stride, boolean nodes) {
+        int steps = length(x, y, xBias, yBias, stride);
+        if (steps == 0) {
+            return 0;
+        }
+        int family = familyOf(xBias, yBias);
+        int line = lineOf(size, family, x, y);
+        int start = coordinateOf(family, x, y);
+        int bias = family == COLUMN ? yBias : xBias;
+        int low = bias > 0 ? start + stride : start - stride * steps;
+        int high = bias > 0 ? start + stride * steps : start - stride;
+        if (stride == 2) {
+            return sumRange(tree, family * 2 + (start & 1), line, low, high, nodes);
+        }
+        return sumRange(tree, family * 2, line, low, high, nodes)
+                + sumRange(tree, family * 2 + 1, line, low, high, nodes);
+    }
+
+    /**
+     * Counts the cells a ray visits, up to and including the first cell outside the board.
+     *
+     * @param x the x-coordinate of the start
+     * @param y the y-coordinate of the start
+     * @param xBias the x-step of the ray
+     * @param yBias the y-step of the ray
+     * @param stride the number of steps made between two visited cells
+     * @return the number of visited cells, or 0 if the start is outside the board
+     */
+    public int length(int x, int y, int xBias, int yBias, int stride) {
+        if (x < 1 || y < 1 || x > size || y > size) {
+            return 0;
+        }
+        return Math.min(stepsToLeave(x, xBias, stride), stepsToLeave(y, yBias, stride));
+    }
+
+    /**
+     * Finds the nearest visited cell of a ray, past the given one, that holds or held food.
+     * The cell may have been emptied since the index was built.
+     *
+     * @param x the x-coordinate of the start
+     * @param y the y-coordinate of the start
+     * @param xBias the x-step of the ray
+     * @param yBias the y-step of the ray
+     * @param stride the number of steps made between two visited cells, 1 or 2
+     * @param afterCell the number of the visited cell to search past, 0 for the start
+     * @return the number of the found cell, or Integer.MAX_VALUE if there is none
+     */
+    public int nextFoodCell(int x, int y, int xBias, int yBias, int stride, int afterCell) {
+        int family = familyOf(xBias, yBias);
+        int line = lineOf(size, family, x, y);
+        if (line < 0) {
+            return Integer.MAX_VALUE;
+        }
+        int start = coordinateOf(family, x, y);
+        int bias = family == COLUMN ? yBias : xBias;
+        if (stride == 2) {
+            return nextFoodCellInSet(family * 2 + (start & 1), line, start, bias, stride, afterCell);
+        }
+        return Math.min(nextFoodCellInSet(family * 2, line, start, bias, stride, afterCell),
+                nextFoodCellInSet(family * 2 + 1, line, start, bias, stride, afterCell));
+    }
+
+    /**
+     * Finds the nearest visited cell of a ray, past the given one, among the food of one line set.
+     *
+     * @param set the family and parity of the line
+     * @param line the line number
+     * @param start the coordinate of the start along the line
+     * @param bias the step along the line, 1 or -1
+     * @param stride the number of steps made between two visited cells
+     * @param afterCell the number of the visited cell to search past
+     * @return the number of the found cell, or Integer.MAX_VALUE if there is none
+     */
+    private int nextFoodCellInSet(int set, int line, int start, int bias, int stride, int afterCell) {
+        int from = offsets[set][line];
+        int to = offsets[set][line + 1];
+        int target = start + bias * stride * (afterCell + 1);
+        if (bias > 0) {
+            int pos = from + countUpTo(set, from, to, target - 1);
+            return pos < to ? (coordinates[set][pos] - start) / stride : Integer.MAX_VALUE;
+        }
+        int count = countUpTo(set, from, to, target);
+        return count > 0 ? (start - coordinates[set][from + count - 1]) / stride : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Counts the steps a ray makes along one axis until it leaves the board, the leaving step included.
+     *
+     * @param start the starting coordinate
+     * @param bias the step along the axis
+     * @param stride the number of steps made between two visited cells
+     * @return the number of visited cells, or Integer.MAX_VALUE if the ray never leaves along this axis
+     */
+    private int stepsToLeave(int start, int bias, int stride) {
+        if (bias == 0) {
+            return Integer.MAX_VALUE;
+        }
+        return (bias > 0 ? size - start : start - 1) / stride + 1;
+    }
+
+    /**
+     * Sums a Fenwick tree over the food of one line between two coordinates, both inclusive.
+     *
+     * @param tree the Fenwick trees of every family and parity
+     * @param set the family and parity of the line
+     * @param line the line number
+     * @param low the lowest coordinate
+     * @param high the highest coordinate
+     * @param nodes true to count the tree nodes read instead of summing them
+     * @return the sum over the food points, or the number of tree nodes read
+     */
+    private int sumRange(int[][] tree, int set, int line, int low, int high, boolean nodes) {
+        int from = offsets[set][line];
+        int to = offsets[set][line + 1];
+        if (from == to) {
+            return 0;
+        }
+        int highCount = countUpTo(set, from, to, high);
+        int lowCount = countUpTo(set, from, to, low - 1);
+        if (nodes) {
+            // A prefix sum reads one node per set bit of its length
+            return Integer.bitCount(highCount) + Integer.bitCount(lowCount);
+        }
+        return prefixSum(tree, set, from, highCount) - prefixSum(tree, set, from, lowCount);
+    }
+
+    /**
+     * Counts the food points of a line with a coordinate not greater than the given one.
+     *
+     * @param set the family and parity of the line
+     * @param from the first position of the line
+     * @param to the position after the last one of the line
+     * @param coordinate the coordinate bound
+     * @return the number of food points
+     */
+    private int countUpTo(int set, int from, int to, int coordinate) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (coordinates[set][mid] <= coordinate) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - from;
+    }
+
+    /**
+     * Sums a Fenwick tree over the first food points of a line.
+     *
+     * @param tree the Fenwick trees of every family and parity
+     * @param set the family and parity of the line
+     * @param from the first position of the line
+     * @param count the number of food points to sum
+     * @return the sum over the food points
+     */
+    private int prefixSum(int[][] tree, int set, int from, int count) {
+        int sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[set][from + i - 1];
+        }
+        return sum;
+    }
+}
+
+/**
+ * Visible food values of the cells that rows and columns of a board can visit, kept in dense arrays.
+ * Rows are stored one after another, and columns in a transposed copy, so that a ray along either reads
+ * consecutive elements in a plain loop that the JIT compiler turns into SIMD additions.
+ * Cells from -1 to size + 2 are covered, as a ray with stride 2 can end two cells past the board.
+ */
+class DenseFoodGrid {
+    private static final long MAX_CELLS = 1L << 24;
+    private static final int MARGIN = 1;
+
+    private final int size;
+    private final int width;
+    private final int[] rows;
+    private final int[] columns;
+
+    /**
+     * Creates an empty grid for a board.
+     *
+     * @param size the size of the board
+     */
+    public DenseFoodGrid(int size) {
+        this.size = size;
+        this.width = size + 2 + 2 * MARGIN;
+        this.rows = new int[width * width];
+        this.columns = new int[width * width];
+    }
+
+    /**
+     * Checks if a grid for a board of the given size is small enough to be kept in memory.
+     *
+     * @param size the size of the board
+     * @return true if the grid fits
+     */
+    public static boolean fits(int size) {
+        long width = size + 2L + 2 * MARGIN;
+        return width * width <= MAX_CELLS;
+    }
+
+    /**
+     * Sets the visible food value of a cell; cells no ray can visit are ignored.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param value the visible food value, 0 for none
+     */
+    public void set(int x, int y, int value) {
+        if (x < -MARGIN || y < -MARGIN || x >= width - MARGIN || y >= width - MARGIN) {
+            return;
+        }
+        rows[(y + MARGIN) * width + x + MARGIN] = value;
+        columns[(x + MARGIN) * width + y + MARGIN] = value;
+    }
+
+    /**
+     * Sums the visible food on an orthogonal ray, visiting every stride-th cell up to and including
+     * the first cell outside the board. The ray is recorded in the metrics with the cells summed.
+     *
+     * @param x the x-coordinate of the start
+     * @param y the y-coordinate of the start
+     * @param xBias the x-step of the direction
+     * @param yBias the y-step of the direction, 0 if xBias is not
+     * @param stride the number of steps made between two visited cells
+     * @return the total visible food value on the ray
+     */
+    public int sum(int x, int y, int xBias, int yBias, int stride) {
+        if (x < 1 || y < 1 || x > size || y > size) {
+            return 0;
+        }
+        int[] cells = yBias == 0 ? rows : columns;
+        int start = yBias == 0 ? x : y;
+        int step = yBias == 0 ? xBias : yBias;
+        int base = ((yBias == 0 ? y : x) + MARGIN) * width + MARGIN;
+        int steps = step > 0 ? (size - start) / stride + 1 : (start - 1) / stride + 1;
+        int first = step > 0 ? start + stride : start - stride * steps;
+        int last = step > 0 ? start + stride * steps : start - stride;
+        SimulationMetrics.INSTANCE.addRay(steps);
+        return stride == 1 ? sumRange(cells, base + first, base + last)
+                : sumEvery(cells, base + first, base + last, stride);
+    }
+
+    /**
+     * Sums consecutive elements of an array.
+     *
+     * @param cells the array
+     * @param from the first element
+     * @param to the last element
+     * @return the sum
+     */
+    private static int sumRange(int[] cells, int from, int to) {
+        int total = 0;
+        for (int i = from; i <= to; ++i) {
+            total += cells[i];
+        }
+        return total;
+    }
+
+    /**
+     * Sums every stride-th element of an array between two elements.
+     *
+     * @param cells the array
+     * @param from the first element
+     * @param to the last element
+     * @param stride the distance between two summed elements
+     * @return the sum
+     */
+    private static int sumEvery(int[] cells, int from, int to, int stride) {
+        int total = 0;
+        for (int i = from; i <= to; i += stride) {
+            total += cells[i];
+        }
+        return total;
+    }
+}
+
+/**
+ * Bitsets of the cells holding a visible insect, per line of every family and per insect color.
+ * A ray finds the first insect of another color with word-level bit scans instead of visiting its cells.
+ * Lines get their bitsets when the first insect lands on them.
+ */
+class InsectOccupancy {
+    private static final long EVEN_BITS = 0x5555555555555555L;
+    private static final int COLORS = InsectColor.values().length;
+
+    private final int size;
+    private final int words;
+    private final long[][][] occupied = new long[FoodRayIndex.FAMILIES][][];
+    private final long[][][][] occupiedByColor = new long[COLORS][FoodRayIndex.FAMILIES][][];
+
+    /**
+     * Creates an empty InsectOccupancy.
+     *
+     * @param size the size of the board
+     */
+    public InsectOccupancy(int size) {
+        this.size = size;
+        // Coordinates along a line run from 0 to size + 1, the cells next to the board included
+        this.words = (size + 2 + 63) >>> 6;
+        for (int family = 0; family < FoodRayIndex.FAMILIES; ++family) {
+            int lines = FoodRayIndex.lineCount(size, family);
+            occupied[family] = new long[lines][];
+            for (int color = 0; color < COLORS; ++color) {
+                occupiedByColor[color][family] = new long[lines][];
+            }
+        }
+    }
+
+    /**
+     * Marks a cell as holding a visible insect of the given color, or as not holding one.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param color the color of the insect
+     * @param present true to mark the insect, false to clear it
+     */
+    public void set(int x, int y, InsectColor color, boolean present) {
+        for (int family = 0; family < FoodRayIndex.FAMILIES; ++family) {
+            int line = FoodRayIndex.lineOf(size, family, x, y);
+            int coordinate = FoodRayIndex.coordinateOf(family, x, y);
+            if (line < 0 || coordinate < 0 || coordinate > size + 1) {
+                continue;
+            }
+            long[][] colorLines = occupiedByColor[color.ordinal()][family];
+            if (occupied[family][line] == null) {
+                occupied[family][line] = new long[words];
+            }
+            if (colorLines[line] == null) {
+                colorLines[line] = new long[words];
+            }
+            long bit = 1L << coordinate;
+            if (present) {
+                occupied[family][line][coordinate >>> 6] |= bit;
+                colorLines[line][coordinate >>> 6] |= bit;
+            } else {
+                occupied[family][line][coordinate >>> 6] &= ~bit;
+                colorLines[line][coordinate >>> 6] &= ~bit;
+            }
+        }
+    }
+
+    /**
+     * Finds the first visited cell of a ray that holds a visible insect of another color.
+     *
+     * @param x the x-coordinate of the start
+     * @param y the y-coordinate of the start
+     * @param xBias the x-step of the ray
+     * @param yBias the y-step of the ray
+     * @param stride the number of steps made between two visited cells, 1 or 2
+     * @param color the color of the insect walking the ray
+     * @return the number of the blocking cell, or Integer.MAX_VALUE if no cell blocks the ray
+     */
+    public int firstBlockingCell(int x, int y, int xBias, int yBias, int stride, InsectColor color) {
+        int family = FoodRayIndex.familyOf(xBias, yBias);
+        int line = FoodRayIndex.lineOf(size, family, x, y);
+        if (line < 0 || occupied[family][line] == null) {
+            return Integer.MAX_VALUE;
+        }
+        long[] all = occupied[family][line];
+        long[] own = occupiedByColor[color.ordinal()][family][line];
+        int start = FoodRayIndex.coordinateOf(family, x, y);
+        int bias = xBias == 0 ? yBias : xBias;
+        // With stride 2 only the cells of the same parity as the start are visited
+        long visited = stride == 1 ? -1L : (start & 1) == 0 ? EVEN_BITS : ~EVEN_BITS;
+        if (bias > 0) {
+            int first = start + stride;
+            for (int word = first >>> 6; word < words; ++word) {
+                long enemies = enemiesIn(all, own, word) & visited;
+                if (word == first >>> 6) {
+                    enemies &= -1L << first;
+                }
+                if (enemies != 0) {
+                    return (word * 64 + Long.numberOfTrailingZeros(enemies) - start) / stride;
+                }
+            }
+        } else {
+            int first = start - stride;
+            if (first < 0) {
+                return Integer.MAX_VALUE;
+            }
+            for (int word = first >>> 6; word >= 0; --word) {
+                long enemies = enemiesIn(all, own, word) & visited;
+                if (word == first >>> 6) {
+                    enemies &= -1L >>> (63 - (first & 63));
+                }
+                if (enemies != 0) {
+                    return (start - (word * 64 + 63 - Long.numberOfLeadingZeros(enemies))) / stride;
+                }
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Gets the cells of one word of a line that hold an insect of another color.
+     *
+     * @param all the bitset of all insects on the line
+     * @param own the bitset of the insects of the walking color, or null if there are none
+     * @param word the index of the word
+     * @return the bits of the blocking cells
+     */
+    private static long enemiesIn(long[] all, long[] own, int word) {
+        return own == null ? all[word] : all[word] & ~own[word];
+    }
+}
+
+/**
+ * Abstract base class for all entities on the game board.
+ */
+abstract class BoardEntity {
+    protected EntityPosition entityPosition;
+
+    /**
+     * Creates a new BoardEntity at the given position.
+     *
+     * @param entityPosition the position of the entity
+     */
+    public BoardEntity(EntityPosition entityPosition) {
+        this.entityPosition = entityPosition;
+    }
+}
+
+/**
+ * Represents a food point on the game board with a specific value.
+ */
+class FoodPoint extends BoardEntity {
+    private int value;
+
+    /**
+     * Creates a new FoodPoint at the given position with the specified value.
+     *
+     * @param position the position of the food point
+     * @param value the food value
+     */
+    public FoodPoint(EntityPosition position, int value) {
+        super(position);
+        this.value = value;
+    }
+
+    /**
+     * Gets the food value of this point.
+     *
+     * @return the food value
+     */
+    public int getValue() {
+        return value;
+    }
+}
+
+/**
+ * Interface for the storage of board entities, addressed by the order in which they were added.
+ */
+interface EntityStore {
+    /**
+     * Appends an entity; its index is the number of entities added before it.
+     *
+     * @param entity the entity to add
+     */
+    void add(BoardEntity entity);
+
+    /**
+     * Gets the entity at the specified index.
+     *
+     * @param idx the index of the entity
+     * @return the entity, or null if there is none or it was removed
+     */
+    BoardEntity get(int idx);
+
+    /**
+     * Removes the entity at the specified index.
+     *
+     * @param idx the index of the entity
+     */
+    void remove(int idx);
+
+    /**
+     * Stores an entity in a removed slot, which keeps its index.
+     *
+     * @param idx the index of the removed slot
+     * @param entity the entity to store
+     */
+    void set(int idx, BoardEntity entity);
+
+    /**
+     * Moves a present entity to another position.
+     *
+     * @param idx the index of the entity
+     * @param x the new x-coordinate
+     * @param y the new y-coordinate
+     */
+    void setPosition(int idx, int x, int y);
+
+    /**
+     * Checks if an entity is stored at the specified index.
+     *
+     * @param idx the index of the entity
+     * @return true if the entity exists and was not removed, false otherwise
+     */
+    boolean isPresent(int idx);
+
+    /**
+     * Gets the x-coordinate of a present entity.
+     *
+     * @param idx the index of the entity
+     * @return the x-coordinate
+     */
+    int getX(int idx);
+
+    /**
+     * Gets the y-coordinate of a present entity.
+     *
+     * @param idx the index of the entity
+     * @return the y-coordinate
+     */
+    int getY(int idx);
+
+    /**
+     * Checks if a present entity is a food point.
+     *
+     * @param idx the index of the entity
+     * @return true if the entity is a food point, false if it is an insect
+     */
+    boolean isFood(int idx);
+
+    /**
+     * Gets the value of a present food point.
+     *
+     * @param idx the index of the food point
+     * @return the food value
+     */
+    int getFoodValue(int idx);
+
+    /**
+     * Gets the color of a present insect.
+     *
+     * @param idx the index of the insect
+     * @return the insect color
+     */
+    InsectColor getColor(int idx);
+}
+
+/**
+ * Entity store keeping every entity as an object.
+ */
+class ObjectEntityStore implements EntityStore {
+    private final List<BoardEntity> entities = new ArrayList<>();
+
+    @Override
+    public void add(BoardEntity entity) {
+        entities.add(entity);
+    }
+
+    @Override
+    public BoardEntity get(int idx) {
+        return idx < 0 || idx >= entities.size() ? null : entities.get(idx);
+    }
+
+    @Override
+    public void remove(int idx) {
+        entities.set(idx, null);
+    }
+
+    @Override
+    public void set(int idx, BoardEntity entity) {
+        entities.set(idx, entity);
+    }
+
+    @Override
+    public void setPosition(int idx, int x, int y) {
+        // Positions may be shared with the templates the entity was copied from, so they are replaced
+        entities.get(idx).entityPosition = new EntityPosition(x, y);
+    }
+
+    @Override
+    public boolean isPresent(int idx) {
+        return get(idx) != null;
+    }
+
+    @Override
+    public int getX(int idx) {
+        return entities.get(idx).entityPosition.getX();
+    }
+
+    @Override
+    public int getY(int idx) {
+        return entities.get(idx).entityPosition.getY();
+    }
+
+    @Override
+    public boolean isFood(int idx) {
+        return entities.get(idx) instanceof FoodPoint;
+    }
+
+    @Override
+    public int getFoodValue(int idx) {
+        return ((FoodPoint) entities.get(idx)).getValue();
+    }
+
+    @Override
+    public InsectColor getColor(int idx) {
+        return ((Insect) entities.get(idx)).insectColor;
+    }
+}
+
+/**
+ * Entity store keeping entities in parallel primitive arrays, about 14 bytes per entity.
+ * Entity objects are created on demand when they are requested through get.
+ */
+class CompactEntityStore implements EntityStore {
+    private static final byte REMOVED = -1;
+    private static final byte FOOD = (byte) InsectType.values().length;
+    private static final InsectType[] INSECT_TYPES = InsectType.values();
+    private static final InsectColor[] INSECT_COLORS = InsectColor.values();
+
+    private int[] xs;
+    private int[] ys;
+    private int[] values;
+    private byte[] types;
+    private byte[] colors;
+    private int count = 0;
+
+    /**
+     * Creates a new empty CompactEntityStore.
+     *
+     * @param capacity the expected number of entities
+     */
+    public CompactEntityStore(int capacity) {
+        int initialCapacity = Math.max(capacity, 16);
+        xs = new int[initialCapacity];
+        ys = new int[initialCapacity];
+        values = new int[initialCapacity];
+        types = new byte[initialCapacity];
+        colors = new byte[initialCapacity];
+    }
+
+    @Override
+    public void add(BoardEntity entity) {
+        if (count == xs.length) {
+            int capacity = count + (count >> 1);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            types = Arrays.copyOf(types, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+        }
+        set(count, entity);
+        count += 1;
+    }
+
+    @Override
+    public void set(int idx, BoardEntity entity) {
+        xs[idx] = entity.entityPosition.getX();
+        ys[idx] = entity.entityPosition.getY();
+        if (entity instanceof FoodPoint foodPoint) {
+            types[idx] = FOOD;
+            values[idx] = foodPoint.getValue();
+        } else {
+            Insect insect = (Insect) entity;
+            types[idx] = (byte) insect.getType().ordinal();
+            colors[idx] = (byte) insect.insectColor.ordinal();
+        }
+    }
+
+    @Override
+    public BoardEntity get(int idx) {
+        if (!isPresent(idx)) {
+            return null;
+        }
+        EntityPosition position = new EntityPosition(xs[idx], ys[idx]);
+        if (types[idx] == FOOD) {
+            return new FoodPoint(position, values[idx]);
+        }
+        return INSECT_TYPES[types[idx]].create(position, INSECT_COLORS[colors[idx]]);
+    }
+
+    @Override
+    public void remove(int idx) {
+        types[idx] = REMOVED;
+    }
+
+    @Override
+    public void setPosition(int idx, int x, int y) {
+        xs[idx] = x;
+        ys[idx] = y;
+    }
+
+    @Override
+    public boolean isPresent(int idx) {
+        return idx >= 0 && idx < count && types[idx] != REMOVED;
+    }
+
+    @Override
+    public int getX(int idx) {
+        return xs[idx];
+    }
+
+    @Override
+    public int getY(int idx) {
+        return ys[idx];
+    }
+
+    @Override
+    public boolean isFood(int idx) {
+        return types[idx] == FOOD;
+    }
+
+    @Override
+    public int getFoodValue(int idx) {
+        return values[idx];
+    }
+
+    @Override
+    public InsectColor getColor(int idx) {
+        return INSECT_COLORS[colors[idx]];
+    }
+}
+
+/**
+ * Fixed-length int array kept outside the Java heap, in a memory-mapped temporary file.
+ * The file is deleted right after mapping, so the operating system reclaims it with the mapping.
+ */
+class OffHeapIntArray {
+    private static final int SEGMENT_SHIFT = 28;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private final IntBuffer[] segments;
+    private final long length;
+
+    /**
+     * Creates a new zero-filled OffHeapIntArray.
+     *
+     * @param length the number of ints
+     * @param directory the directory for the backing file
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public OffHeapIntArray(long length, File directory) throws IOException {
+        this.length = length;
+        segments = new IntBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+        File file = File.createTempFile("board", ".bin", directory);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            for (int i = 0; i < segments.length; ++i) {
+                long first = (long) i << SEGMENT_SHIFT;
+                long ints = Math.min(length - first, 1L << SEGMENT_SHIFT);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, first * Integer.BYTES, ints * Integer.BYTES)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of ints in the array.
+     *
+     * @return the length
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Gets the int at the specified index.
+     *
+     * @param idx the index
+     * @return the value
+     */
+    public int get(long idx) {
+        return segments[(int) (idx >>> SEGMENT_SHIFT)].get((int) (idx & SEGMENT_MASK));
+    }
+
+    /**
+     * Sets the int at the specified index.
+     *
+     * @param idx the index
+     * @param value the value
+     */
+    public void set(long idx, int value) {
+        segments[(int) (idx >>> SEGMENT_SHIFT)].put((int) (idx & SEGMENT_MASK), value);
+    }
+}
+
+/**
+ * Dense grid from a board position to an entity index, kept off-heap.
+ * Like GridCellIndex it covers the board and two cells around it and hashes positions further away.
+ */
+class OffHeapCellIndex implements CellIndex {
+    private static final int MARGIN = 2;
+
+    private final long width;
+    private final OffHeapIntArray cells;
+    private final PositionIndex outside = new PositionIndex();
+
+    /**
+     * Creates a new empty OffHeapCellIndex for a board of the given size.
+     *
+     * @param size the size of the board
+     * @param directory the directory for the backing file
+     * @throws IOException if the backing file cannot be created
+     */
+    public OffHeapCellIndex(int size, File directory) throws IOException {
+        width = size + 2L * MARGIN;
+        // Cells hold the entity index plus one, so the zero-filled file starts out empty
+        cells = new OffHeapIntArray(width * width, directory);
+    }
+
+    /**
+     * Gets the grid cell of the given position.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the cell number, or -1 if the position is outside the grid
+     */
+    private long cellOf(int x, int y) {
+        long column = x + MARGIN - 1L;
+        long row = y + MARGIN - 1L;
+        if (column < 0 || row < 0 || column >= width || row >= width) {
+            return -1;
+        }
+        return row * width + column;
+    }
+
+    @Override
+    public int get(int x, int y) {
+        long cell = cellOf(x, y);
+        return cell < 0 ? outside.get(x, y) : cells.get(cell) - 1;
+    }
+
+    @Override
+    public boolean putIfAbsent(int x, int y, int idx) {
+        long cell = cellOf(x, y);
+        if (cell < 0) {
+            return outside.putIfAbsent(x, y, idx);
+        }
+        if (cells.get(cell) != 0) {
+            return false;
+        }
+        cells.set(cell, idx + 1);
+        return true;
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        long cell = cellOf(x, y);
+        if (cell < 0) {
+            outside.remove(x, y);
+        } else {
+            cells.set(cell, 0);
+        }
+    }
+}
+
+/**
+ * Entity store keeping fixed-size entity records off-heap, 16 bytes per entity.
+ * Each record holds x, y, the food value and the kind, which packs the insect type and color.
+ */
+class OffHeapEntityStore implements EntityStore {
+    private static final int RECORD_INTS = 4;
+    private static final int REMOVED = -1;
+    private static final int FOOD = InsectType.values().length;
+    private static final InsectType[] INSECT_TYPES = InsectType.values();
+    private static final InsectColor[] INSECT_COLORS = InsectColor.values();
+
+    private final File directory;
+    private OffHeapIntArray records;
+    private int count = 0;
+
+    /**
+     * Creates a new empty OffHeapEntityStore.
+     *
+     * @param capacity the expected number of entities
+     * @param directory the directory for the backing file
+     * @throws IOException if the backing file cannot be created
+     */
+    public OffHeapEntityStore(int capacity, File directory) throws IOException {
+        this.directory = directory;
+        records = new OffHeapIntArray((long) Math.max(capacity, 16) * RECORD_INTS, directory);
+    }
+
+    @Override
+    public void add(BoardEntity entity) {
+        long base = (long) count * RECORD_INTS;
+        if (base == records.length()) {
+            grow();
+        }
+        set(count, entity);
+        count += 1;
+    }
+
+    @Override
+    public void set(int idx, BoardEntity entity) {
+        long base = (long) idx * RECORD_INTS;
+        records.set(base, entity.entityPosition.getX());
+        records.set(base + 1, entity.entityPosition.getY());
+        if (entity instanceof FoodPoint foodPoint) {
+            records.set(base + 2, foodPoint.getValue());
+            records.set(base + 3, FOOD);
+        } else {
+            Insect insect = (Insect) entity;
+            records.set(base + 2, 0);
+            records.set(base + 3, insect.getType().ordinal() | insect.insectColor.ordinal() << 8);
+        }
+    }
+
+    /**
+     * Moves the records to a backing file of twice the size.
+     */
+    private void grow() {
+        try {
+            OffHeapIntArray grown = new OffHeapIntArray(records.length() * 2, directory);
+            for (long i = 0; i < records.length(); ++i) {
+                grown.set(i, records.get(i));
+            }
+            records = grown;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Gets the kind of the entity at the specified index.
+     *
+     * @param idx the index of the entity
+     * @return the kind of the entity
+     */
+    private int kindOf(int idx) {
+        return records.get((long) idx * RECORD_INTS + 3);
+    }
+
+    @Override
+    public BoardEntity get(int idx) {
+        if (!isPresent(idx)) {
+            return null;
+        }
+        EntityPosition position = new EntityPosition(getX(idx), getY(idx));
+        int kind = kindOf(idx);
+        if (kind == FOOD) {
+            return new FoodPoint(position, getFoodValue(idx));
+        }
+        return INSECT_TYPES[kind & 0xFF].create(position, INSECT_COLORS[kind >>> 8]);
+    }
+
+    @Override
+    public void remove(int idx) {
+        records.set((long) idx * RECORD_INTS + 3, REMOVED);
+    }
+
+    @Override
+    public void setPosition(int idx, int x, int y) {
+        records.set((long) idx * RECORD_INTS, x);
+        records.set((long) idx * RECORD_INTS + 1, y);
+    }
+
+    @Override
+    public boolean isPresent(int idx) {
+        return idx >= 0 && idx < count && kindOf(idx) != REMOVED;
+    }
+
+    @Override
+    public int getX(int idx) {
+        return records.get((long) idx * RECORD_INTS);
+    }
+
+    @Override
+    public int getY(int idx) {
+        return records.get((long) idx * RECORD_INTS + 1);
+    }
+
+    @Override
+    public boolean isFood(int idx) {
+        return kindOf(idx) == FOOD;
+    }
+
+    @Override
+    public int getFoodValue(int idx) {
+        return records.get((long) idx * RECORD_INTS + 2);
+    }
+
+    @Override
+    public InsectColor getColor(int idx) {
+        return INSECT_COLORS[kindOf(idx) >>> 8];
+    }
+}
+
+/**
+ * External-memory sort of the food points of a scenario, for food lists too large to hold on-heap.
+ * Food points are buffered up to a run size, sorted by position in row-major order, y then x, and spilled
+ * to a run file in the off-heap directory. The runs are then merged with a k-way merge straight onto
+ * a board, so the food ends up stored in row-major order. Points sharing a position leave the merge one
+ * after the other in input order, so the first one read stays visible, as when food is added as it is read,
+ * and the position is found shared while the merge adds them. Run files are deleted when the spill is closed.
+ */
+class FoodSpill implements Closeable {
+    private final File directory;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] values;
+    private int count = 0;
+    private final List<File> runs = new ArrayList<>();
+
+    /**
+     * Creates a new empty FoodSpill.
+     *
+     * @param runSize the number of food points sorted in memory before they are spilled
+     * @param directory the directory for the run files
+     */
+    public FoodSpill(int runSize, File directory) {
+        this.directory = directory;
+        xs = new int[runSize];
+        ys = new int[runSize];
+        values = new int[runSize];
+    }
+
+    /**
+     * Adds a food point, spilling the buffered ones first if the buffer is full.
+     *
+     * @param x the x-coordinate of the food point
+     * @param y the y-coordinate of the food point
+     * @param value the food value
+     * @throws IOException if a run file cannot be written
+     */
+    public void add(int x, int y, int value) throws IOException {
+        if (count == xs.length) {
+            spill();
+        }
+        xs[count] = x;
+        ys[count] = y;
+        values[count] = value;
+        count += 1;
+    }
+
+    /**
+     * Writes the buffered food points to a new run file in row-major order and empties the buffer.
+     *
+     * @throws IOException if the run file cannot be written
+     */
+    private void spill() throws IOException {
+        File run = File.createTempFile("gameboard-food", ".run", directory);
+        runs.add(run);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run.toPath())))) {
+            for (int idx : sortedOrder()) {
+                output.writeInt(ys[idx]);
+                output.writeInt(xs[idx]);
+                output.writeInt(values[idx]);
+            }
+        }
+        count = 0;
+    }
+
+    /**
+     * Sorts the buffered food points by position with a bottom-up merge sort, which keeps points
+     * at the same position in input order.
+     *
+     * @return the buffer indexes in row-major order
+     */
+    private int[] sortedOrder() {
+        int[] order = new int[count];
+        for (int i = 0; i < count; ++i) {
+            order[i] = i;
+        }
+        int[] merged = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int lo = 0; lo < count; lo += 2 * width) {
+                int mid = Math.min(lo + width, count);
+                int hi = Math.min(lo + 2 * width, count);
+                int left = lo;
+                int right = mid;
+                for (int k = lo; k < hi; ++k) {
+                    if (left < mid && (right >= hi || compare(order[left], order[right]) <= 0)) {
+                        merged[k] = order[left++];
+                    } else {
+                        merged[k] = order[right++];
+                    }
+                }
+            }
+            int[] sorted = merged;
+            merged = order;
+            order = sorted;
+        }
+        return order;
+    }
+
+    /**
+     * Compares the positions of two buffered food points in row-major order.
+     *
+     * @param first the buffer index of the first food point
+     * @param second the buffer index of the second food point
+     * @return a negative number, zero or a positive number as the first position comes before, equals
+     *         or comes after the second
+     */
+    private int compare(int first, int second) {
+        int byRow = Integer.compare(ys[first], ys[second]);
+        return byRow != 0 ? byRow : Integer.compare(xs[first], xs[second]);
+    }
+
+    /**
+     * Adds every food point to a board in row-major order.
+     * When asked to, the merge stops at the first shared position, since the board is then invalid.
+     *
+     * @param board the board
+     * @param stopAtSharedPosition true to stop once the board has entities sharing a position
+     * @throws IOException if a run file cannot be read
+     */
+    public void mergeInto(Board board, boolean stopAtSharedPosition) throws IOException {
+        if (runs.isEmpty()) {
+            for (int idx : sortedOrder()) {
+                board.addEntity(new FoodPoint(new EntityPosition(xs[idx], ys[idx]), values[idx]));
+                if (stopAtSharedPosition && board.hasSharedPositions()) {
+                    return;
+                }
+            }
+            return;
+        }
+        if (count > 0) {
+            spill();
+        }
+        PriorityQueue<FoodRun> queue = new PriorityQueue<>(runs.size());
+        try {
+            for (int i = 0; i < runs.size(); ++i) {
+                FoodRun run = new FoodRun(runs.get(i), i);
+                if (run.next()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            }
+            while (!queue.isEmpty()) {
+                FoodRun run = queue.poll();
+                board.addEntity(new FoodPoint(new EntityPosition(run.getX(), run.getY()), run.getValue()));
+                if (run.next()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+                if (stopAtSharedPosition && board.hasSharedPositions()) {
+                    return;
+                }
+            }
+        } finally {
+            for (FoodRun run : queue) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes the run files.
+     */
+    @Override
+    public void close() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+}
+
+/**
+ * Reader of a run file of a FoodSpill, ordered by its current food point and then by run number,
+ * so that a merge keeps the points at the same position in input order.
+ */
+class FoodRun implements Comparable<FoodRun>, Closeable {
+    private static final int RECORD_BYTES = 3 * Integer.BYTES;
+
+    private final DataInputStream input;
+    private final int number;
+    private long remaining;
+    private int x;
+    private int y;
+    private int value;
+
+    /**
+     * Opens a run file.
+     *
+     * @param file the run file
+     * @param number the number of the run, in the order the runs were spilled
+     * @throws IOException if the file cannot be opened
+     */
+    public FoodRun(File file, int number) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        this.number = number;
+        this.remaining = file.length() / RECORD_BYTES;
+    }
+
+    /**
+     * Moves to the next food point of the run.
+     *
+     * @return true if there was one, false if the run is exhausted
+     * @throws IOException if the file cannot be read
+     */
+    public boolean next() throws IOException {
+        if (remaining == 0) {
+            return false;
+        }
+        y = input.readInt();
+        x = input.readInt();
+        value = input.readInt();
+        remaining -= 1;
+        return true;
+    }
+
+    /**
+     * Gets the x-coordinate of the current food point.
+     *
+     * @return the x-coordinate
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Gets the y-coordinate of the current food point.
+     *
+     * @return the y-coordinate
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Gets the value of the current food point.
+     *
+     * @return the food value
+     */
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public int compareTo(FoodRun other) {
+        if (y != other.y) {
+            return Integer.compare(y, other.y);
+        }
+        if (x != other.x) {
+            return Integer.compare(x, other.x);
+        }
+        return Integer.compare(number, other.number);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
+
+/**
+ * A scenario held as values, so that variants of it can be made without writing input files.
+ * Insects and food points keep the order in which they were added, which is their order in the input.
+ * The entities are templates: boards get copies of them, so a scenario never changes once shared.
+ */
+class Scenario {
+    private final int boardSize;
+    private final List<Insect> insects;
+    private final List<FoodPoint> foodPoints;
+
+    /**
+     * Creates an empty scenario.
+     *
+     * @param boardSize the size of the board
+     */
+    public Scenario(int boardSize) {
+        this(boardSize, new ArrayList<>(), new ArrayList<>());
+    }
+
+    /**
+     * Creates a scenario with the given entities.
+     *
+     * @param boardSize the size of the board
+     * @param insects the insects, in input order
+     * @param foodPoints the food points, in input order
+     */
+    private Scenario(int boardSize, List<Insect> insects, List<FoodPoint> foodPoints) {
+        this.boardSize = boardSize;
+        this.insects = insects;
+        this.foodPoints = foodPoints;
+    }
+
+    /**
+     * Adds an insect after the insects added so far.
+     *
+     * @param type the insect type
+     * @param color the insect color
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     */
+    public void addInsect(InsectType type, InsectColor color, int x, int y) {
+        insects.add(type.create(new EntityPosition(x, y), color));
+    }
+
+    /**
+     * Adds a food point after the food points added so far.
+     *
+     * @param value the food value
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     */
+    public void addFood(int value, int x, int y) {
+        foodPoints.add(new FoodPoint(new EntityPosition(x, y), value));
+    }
+
+    /**
+     * Gets the size of the board.
+     *
+     * @return the board size
+     */
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    /**
+     * Gets the number of insects.
+     *
+     * @return the number of insects
+     */
+    public int getInsectCount() {
+        return insects.size();
+    }
+
+    /**
+     * Gets an insect of the scenario.
+     *
+     * @param i the position of the insect in input order
+     * @return the insect
+     */
+    public Insect getInsect(int i) {
+        return insects.get(i);
+    }
+
+    /**
+     * Gets the number of food points.
+     *
+     * @return the number of food points
+     */
+    public int getFoodCount() {
+        return foodPoints.size();
+    }
+
+    /**
+     * Gets a food point of the scenario.
+     *
+     * @param i the position of the food point in input order
+     * @return the food point
+     */
+    public FoodPoint getFood(int i) {
+        return foodPoints.get(i);
+    }
+
+    /**
+     * Checks if an insect or a food point is at the given position.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if the position is taken
+     */
+    public boolean isOccupied(int x, int y) {
+        for (Insect insect : insects) {
+            if (insect.entityPosition.getX() == x && insect.entityPosition.getY() == y) {
+                return true;
+            }
+        }
+        for (FoodPoint foodPoint : foodPoints) {
+            if (foodPoint.entityPosition.getX() == x && foodPoint.entityPosition.getY() == y) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes a copy of this scenario with one more food point after the others.
+     *
+     * @param value the food value
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the new scenario
+     */
+    public Scenario withFood(int value, int x, int y) {
+        Scenario scenario = new Scenario(boardSize, new ArrayList<>(insects), new ArrayList<>(foodPoints));
+        scenario.addFood(value, x, y);
+        return scenario;
+    }
+
+    /**
+     * Makes a copy of this scenario without one of its food points.
+     *
+     * @param i the position of the food point in input order
+     * @return the new scenario
+     */
+    public Scenario withoutFood(int i) {
+        List<FoodPoint> remaining = new ArrayList<>(foodPoints);
+        remaining.remove(i);
+        return new Scenario(boardSize, new ArrayList<>(insects), remaining);
+    }
+
+    /**
+     * Makes a copy of this scenario with one insect moved to another position.
+     *
+     * @param i the position of the insect in input order
+     * @param x the new x-coordinate
+     * @param y the new y-coordinate
+     * @return the new scenario
+     */
+    public Scenario withInsectAt(int i, int x, int y) {
+        List<Insect> moved = new ArrayList<>(insects);
+        Insect insect = insects.get(i);
+        moved.set(i, insect.getType().create(new EntityPosition(x, y), insect.insectColor));
+        return new Scenario(boardSize, moved, new ArrayList<>(foodPoints));
+    }
+
+    /**
+     * Writes the scenario in the format of an input file.
+     *
+     * @return the text of the scenario
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(boardSize).append('\n').append(insects.size()).append('\n')
+                .append(foodPoints.size()).append('\n');
+        for (Insect insect : insects) {
+            text.append(insect.getColorName()).append(' ').append(insect.getType().getDisplayName()).append(' ')
+                    .append(insect.entityPosition.getY()).append(' ').append(insect.entityPosition.getX())
+                    .append('\n');
+        }
+        for (FoodPoint foodPoint : foodPoints) {
+            text.append(foodPoint.getValue()).append(' ').append(foodPoint.entityPosition.getY()).append(' ')
+                    .append(foodPoint.entityPosition.getX()).append('\n');
+        }
+        return text.toString();
+    }
+}
+
+/**
+ * Simulation of a base scenario that answers variants of it differing by one food point or one insect position.
+ * A turn reads only the cells on the rays of its insect, so the turns before the first one whose rays
+ * cross a changed cell play exactly as in the base simulation. A variant reuses their results, replays
+ * the food they ate and the insects they removed without deciding again, and simulates the remaining turns.
+ * Variants that may be invalid, and every variant of an invalid base, are simulated in full.
+ */
+class IncrementalSimulation {
+    private final Scenario base;
+    private final SimulationConfig config;
+    private final String baseOutput;
+    private final boolean baseValid;
+    private final Direction[] directions;
+    private final int[] steps;
+    private final String[] results;
+    private int reusedTurns = 0;
+
+    /**
+     * Simulates the base scenario, recording what every turn did.
+     *
+     * @param base the base scenario
+     * @param config the limits and storage options of the simulations
+     */
+    public IncrementalSimulation(Scenario base, SimulationConfig config) {
+        this.base = base;
+        this.config = config;
+        int turns = base.getInsectCount();
+        directions = new Direction[turns];
+        steps = new int[turns];
+        results = new String[turns];
+        Board board = load(base);
+        baseValid = board != null;
+        baseOutput = baseValid ? play(board, 0, true) : fullRun(base);
+    }
+
+    /**
+     * Gets the results of the base scenario.
+     *
+     * @return what a run of the base scenario writes to its output file
+     */
+    public String getOutput() {
+        return baseOutput;
+    }
+
+    /**
+     * Gets the number of turns the last variant took from the base simulation.
+     *
+     * @return the number of reused turns
+     */
+    public int getReusedTurns() {
+        return reusedTurns;
+    }
+
+    /**
+     * Simulates the base scenario with one more food point after the others.
+     *
+     * @param value the food value
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return what a run of the variant writes to its output file
+     */
+    public String addFood(int value, int x, int y) {
+        Scenario variant = base.withFood(value, x, y);
+        boolean valid = base.getFoodCount() < config.getMaxFoodNumber() && !base.isOccupied(x, y);
+        return simulate(variant, valid, firstTurnReading(x, y, base.getInsectCount()));
+    }
+
+    /**
+     * Simulates the base scenario without one of its food points.
+     *
+     * @param i the position of the food point in input order
+     * @return what a run of the variant writes to its output file
+     */
+    public String removeFood(int i) {
+        FoodPoint foodPoint = base.getFood(i);
+        int turn = firstTurnReading(foodPoint.entityPosition.getX(), foodPoint.entityPosition.getY(),
+                base.getInsectCount());
+        return simulate(base.withoutFood(i), base.getFoodCount() > 1, turn);
+    }
+
+    /**
+     * Simulates the base scenario with one insect moved to another position.
+     *
+     * @param i the position of the insect in input order
+     * @param x the new x-coordinate
+     * @param y the new y-coordinate
+     * @return what a run of the variant writes to its output file
+     */
+    public String moveInsect(int i, int x, int y) {
+        EntityPosition from = base.getInsect(i).entityPosition;
+        if (from.getX() == x && from.getY() == y) {
+            reusedTurns = base.getInsectCount();
+            return baseOutput;
+        }
+        int boardSize = base.getBoardSize();
+        boolean valid = x >= 1 && y >= 1 && x <= boardSize && y <= boardSize && !base.isOccupied(x, y);
+        int turn = firstTurnReading(from.getX(), from.getY(), firstTurnReading(x, y, i));
+        return simulate(base.withInsectAt(i, x, y), valid, turn);
+    }
+
+    /**
+     * Simulates a variant, reusing the base turns before the first affected one.
+     *
+     * @param variant the variant scenario
+     * @param valid true if the variant is known to be valid
+     * @param firstAffectedTurn the first turn whose result may differ from the base
+     * @return what a run of the variant writes to its output file
+     */
+    private String simulate(Scenario variant, boolean valid, int firstAffectedTurn) {
+        if (!baseValid || !valid) {
+            reusedTurns = 0;
+            return fullRun(variant);
+        }
+        reusedTurns = firstAffectedTurn;
+        if (firstAffectedTurn == results.length) {
+            return baseOutput;
+        }
+        Board board = load(variant);
+        return board == null ? fullRun(variant) : play(board, firstAffectedTurn, false);
+    }
+
+    /**
+     * Finds the first turn whose insect, as placed in the base scenario, reads a cell.
+     *
+     * @param x the x-coordinate of the cell
+     * @param y the y-coordinate of the cell
+     * @param endTurn the turn to stop the search at
+     * @return the first turn reading the cell, or endTurn if none before it does
+     */
+    private int firstTurnReading(int x, int y, int endTurn) {
+        for (int turn = 0; turn < endTurn; ++turn) {
+            if (reads(base.getInsect(turn), x, y)) {
+                return turn;
+            }
+        }
+        return endTurn;
+    }
+
+    /**
+     * Checks if a cell is on one of the rays an insect looks along, which include the cells it can travel.
+     *
+     * @param insect the insect
+     * @param x the x-coordinate of the cell
+     * @param y the y-coordinate of the cell
+     * @return true if the insect reads the cell
+     */
+    private boolean reads(Insect insect, int x, int y) {
+        InsectType type = insect.getType();
+        int dx = x - insect.entityPosition.getX();
+        int dy = y - insect.entityPosition.getY();
+        int stride = type.getStride();
+        for (int i = 0; i < type.getDirectionCount(); ++i) {
+            Direction dir = type.getDirection(i);
+            int xStep = dir.getXBias() * stride;
+            int yStep = dir.getYBias() * stride;
+            // Number of steps to the cell along the ray, if the cell lies on it
+            int k = xStep != 0 ? dx / xStep : dy / yStep;
+            if (k >= 1 && k * xStep == dx && k * yStep == dy
+                    && k <= rayLength(insect.entityPosition, dir, stride)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of cells a ray visits, up to and including the first cell outside the board.
+     *
+     * @param start the start of the ray
+     * @param dir the direction of the ray
+     * @param stride the number of steps made between two visited cells
+     * @return the number of visited cells
+     */
+    private int rayLength(EntityPosition start, Direction dir, int stride) {
+        int boardSize = base.getBoardSize();
+        int length = Integer.MAX_VALUE;
+        if (dir.getXBias() != 0) {
+            int x = start.getX();
+            length = dir.getXBias() > 0 ? (boardSize - x) / stride + 1 : (x - 1) / stride + 1;
+        }
+        if (dir.getYBias() != 0) {
+            int y = start.getY();
+            length = Math.min(length, dir.getYBias() > 0 ? (boardSize - y) / stride + 1 : (y - 1) / stride + 1);
+        }
+        return length;
+    }
+
+    /**
+     * Plays the turns of a board, replaying the base turns before the first one to simulate.
+     *
+     * @param board the board of the scenario
+     * @param firstTurn the first turn to simulate
+     * @param record true to record the simulated turns as the base turns
+     * @return the results of all turns
+     */
+    private String play(Board board, int firstTurn, boolean record) {
+        StringBuilder output = new StringBuilder();
+        int boardSize = base.getBoardSize();
+        for (int turn = 0; turn < results.length; ++turn) {
+            Insect insect = (Insect) board.getEntity(turn);
+            if (turn < firstTurn) {
+                replay(board, insect, turn);
+                output.append(results[turn]);
+                continue;
+            }
+            Direction bestDirection = insect.getBestDirection(board, boardSize);
+            int gatheredValue = insect.travelDirection(bestDirection, board, boardSize);
+            board.removeEntity(turn);
+            String result = new EliminatedInsect(insect.insectColor, insect.getType(), bestDirection,
+                    gatheredValue).getInsectResultString() + '\n';
+            if (record) {
+                directions[turn] = bestDirection;
+                steps[turn] = board.getLastTravelSteps();
+                results[turn] = result;
+            }
+            output.append(result);
+        }
+        return output.toString();
+    }
+
+    /**
+     * Applies the changes of a base turn to a board without simulating it:
+     * the food on the cells the insect travelled is eaten and the insect leaves the board.
+     *
+     * @param board the board
+     * @param insect the insect of the turn
+     * @param turn the turn
+     */
+    private void replay(Board board, Insect insect, int turn) {
+        int stride = insect.getType().getStride();
+        int xStep = directions[turn].getXBias() * stride;
+        int yStep = directions[turn].getYBias() * stride;
+        int x = insect.entityPosition.getX();
+        int y = insect.entityPosition.getY();
+        for (int cell = 1; cell <= steps[turn]; ++cell) {
+            EntityPosition position = new EntityPosition(x + xStep * cell, y + yStep * cell);
+            if (board.getEntity(position) instanceof FoodPoint) {
+                board.removeEntity(position);
+            }
+        }
+        board.removeEntity(turn);
+    }
+
+    /**
+     * Reads a scenario onto a board.
+     *
+     * @param scenario the scenario
+     * @return the board, or null if the scenario is invalid
+     */
+    private Board load(Scenario scenario) {
+        try {
+            return new GameBoard(config).load(scenario.toText().getBytes(StandardCharsets.US_ASCII));
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Simulates a scenario from scratch.
+     *
+     * @param scenario the scenario
+     * @return what a run of the scenario writes to its output file
+     */
+    private String fullRun(Scenario scenario) {
+        return new GameBoard(config).run(scenario.toText().getBytes(StandardCharsets.US_ASCII));
+    }
+}
+
+/**
+ * Plays the turns of a board with the decisions of all insects made in parallel up front.
+ * A decision reads only the visible food on the lines its rays run along, so it stays valid
+ * until an earlier turn changes the food on one of those lines. The turns are then played in order
+ * and only the insects whose lines changed decide again, which gives the results of playing
+ * the turns one by one.
+ */
+class OptimisticTurns {
+    private static final SimulationMetrics METRICS = SimulationMetrics.INSTANCE;
+
+    private final Board board;
+    private final int boardSize;
+    private int redecided = 0;
+
+    /**
+     * Creates the turns of a board.
+     *
+     * @param board the game board
+     * @param boardSize the size of the board
+     */
+    public OptimisticTurns(Board board, int boardSize) {
+        this.board = board;
+        this.boardSize = boardSize;
+    }
+
+    /**
+     * Plays the turn of every insect.
+     *
+     * @return the eliminated insects in turn order
+     */
+    public List<EliminatedInsect> run() {
+        int insectCount = board.getLastIdxOfInsect() + 1;
+        board.prepareRays();
+        Direction[] decisions = new Direction[insectCount];
+        long start = METRICS.startTimer();
+        IntStream.range(0, insectCount).parallel().forEach(i -> {
+            Insect insect = (Insect) board.getEntity(i);
+            if (insect != null) {
+                decisions[i] = insect.getBestDirection(board, boardSize);
+            }
+        });
+        METRICS.stopTimer(SimulationMetrics.Phase.DECIDE, start);
+        board.trackLineChanges();
+        List<EliminatedInsect> results = new ArrayList<>(insectCount);
+        for (int i = 0; i < insectCount; ++i) {
+            Insect insect = (Insect) board.getEntity(i);
+            if (insect == null) {
+                continue;
+            }
+            Direction bestDirection = decisions[i];
+            if (hasStaleView(insect)) {
+                start = METRICS.startTimer();
+                bestDirection = insect.getBestDirection(board, boardSize);
+                METRICS.stopTimer(SimulationMetrics.Phase.DECIDE, start);
+                redecided += 1;
+            }
+            start = METRICS.startTimer();
+            int gatheredValue = insect.travelDirection(bestDirection, board, boardSize);
+            board.removeEntity(i);
+            METRICS.stopTimer(SimulationMetrics.Phase.TRAVEL, start);
+            results.add(new EliminatedInsect(insect.insectColor, insect.getType(), bestDirection, gatheredValue));
+        }
+        return results;
+    }
+
+    /**
+     * Checks if the food changed on a line the insect looked along when it decided.
+     *
+     * @param insect the insect
+     * @return true if the insect has to decide again
+     */
+    private boolean hasStaleView(Insect insect) {
+        InsectType type = insect.getType();
+        int x = insect.entityPosition.getX();
+        int y = insect.entityPosition.getY();
+        for (int i = 0; i < type.getDirectionCount(); ++i) {
+            if (board.getLineVersion(x, y, type.getDirection(i)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of insects that decided again because an earlier turn changed what they saw.
+     *
+     * @return the number of repeated decisions
+     */
+    public int getRedecided() {
+        return redecided;
+    }
+}
 
 /**
- * Represents the possible colors of insects.
+ * Plays a board for many ticks instead of a single pass: insects are not removed after their turn but
+ * keep moving, and food respawns at random empty cells, drawn from a seeded generator so that a seed
+ * always gives the same run. In a tick every awake insect decides and travels in index order, then lands
+ * on the last empty cell of its travel. An insect that sees no food, or can neither eat nor move, falls
+ * asleep on the lines its rays run along and wakes up once the visible entities of one of those lines
+ * change, so a tick costs only the insects that can act. An insect woken up by an earlier turn of the tick
+ * still plays in it, which gives the results of letting every insect play every tick.
+ * Respawned food takes the slots of eaten food, so the entity slots stay bounded however long the run.
  */
-enum InsectColor {
-    RED,
-    GREEN,
-    BLUE,
-    YELLOW,
-    NONE;
+class ContinuousSimulation implements LineChangeListener {
+    public static final int DEFAULT_FOOD_PER_TICK = 1;
+    public static final int DEFAULT_MAX_FOOD_VALUE = 10;
+
+    private final Board board;
+    private final int boardSize;
+    private final int insectCount;
+    private final Random random;
+    private final int foodPerTick;
+    private final int maxFoodValue;
+    private final long[] gathered;
+    private final boolean[] asleep;
+    private final int[] sleepEpochs;
+    // Sleepers of every line, each one packed as its sleep epoch in the high half and its index in the low half
+    private final long[][][] sleepers = new long[FoodRayIndex.FAMILIES][][];
+    private final int[][] sleeperCounts = new int[FoodRayIndex.FAMILIES][];
+    private BitSet awake;
+    private BitSet nextAwake;
+    private int playing = Integer.MAX_VALUE;
+    private long ticks = 0;
+    private long moves = 0;
+    private long wakeups = 0;
+    private long foodEaten = 0;
+    private long foodSpawned = 0;
 
     /**
-     * Converts a string to the corresponding InsectColor.
+     * Creates a new ContinuousSimulation of a valid board with every insect awake.
+     * A board summing rays with the index moves to the dense grid, or to walks if the grid does not fit,
+     * since the index would be rebuilt after every respawn.
      *
-     * @param s the string to convert
-     * @return the corresponding InsectColor, or NONE if no match found
+     * @param board the board, which must not have entities sharing a position
+     * @param seed the seed of the food respawns
+     * @param foodPerTick the number of cells tried for a new food point at the start of every tick
+     * @param maxFoodValue the largest value of a new food point
      */
-    public static InsectColor toColor(String s) {
-        s = s.toLowerCase();
-        return switch (s) {
-            case "red" -> RED;
-            case "green" -> GREEN;
-            case "blue" -> BLUE;
-            case "yellow" -> YELLOW;
-            default -> NONE;
-        };
+    public ContinuousSimulation(Board board, long seed, int foodPerTick, int maxFoodValue) {
+        this.board = board;
+        this.boardSize = board.getSize();
+        this.insectCount = board.getLastIdxOfInsect() + 1;
+        this.random = new Random(seed);
+        this.foodPerTick = foodPerTick;
+        this.maxFoodValue = maxFoodValue;
+        gathered = new long[insectCount];
+        asleep = new boolean[insectCount];
+        sleepEpochs = new int[insectCount];
+        for (int family = 0; family < FoodRayIndex.FAMILIES; ++family) {
+            sleepers[family] = new long[FoodRayIndex.lineCount(boardSize, family)][];
+            sleeperCounts[family] = new int[FoodRayIndex.lineCount(boardSize, family)];
+        }
+        awake = new BitSet(insectCount);
+        nextAwake = new BitSet(insectCount);
+        nextAwake.set(0, insectCount);
+        if (board.getRayStrategy() == RayStrategy.INDEX) {
+            board.setRayStrategy(DenseFoodGrid.fits(boardSize) ? RayStrategy.GRID : RayStrategy.WALK);
+        }
+        board.setLineChangeListener(this);
+        board.reuseRemovedFoodSlots();
+    }
+
+    /**
+     * Plays the specified number of ticks.
+     *
+     * @param count the number of ticks
+     */
+    public void run(long count) {
+        for (long i = 0; i < count; ++i) {
+            tick();
+        }
+    }
+
+    /**
+     * Plays one tick: food respawns, then every awake insect takes its turn in index order.
+     */
+    public void tick() {
+        spawnFood();
+        BitSet turn = nextAwake;
+        nextAwake = awake;
+        awake = turn;
+        for (int idx = turn.nextSetBit(0); idx >= 0; idx = turn.nextSetBit(idx + 1)) {
+            playing = idx;
+            play(idx);
+        }
+        playing = Integer.MAX_VALUE;
+        turn.clear();
+        ticks += 1;
+    }
+
+    /**
+     * Adds food points of random values at random cells, skipping the cells that are occupied.
+     */
+    private void spawnFood() {
+        for (int i = 0; i < foodPerTick; ++i) {
+            int x = 1 + random.nextInt(boardSize);
+            int y = 1 + random.nextInt(boardSize);
+            int value = 1 + random.nextInt(maxFoodValue);
+            if (!board.isOccupied(x, y)) {
+                board.addEntity(new FoodPoint(new EntityPosition(x, y), value));
+                foodSpawned += 1;
+            }
+        }
+    }
+
+    /**
+     * Plays the turn of an awake insect.
+     *
+     * @param idx the index of the insect
+     */
+    private void play(int idx) {
+        Insect insect = (Insect) board.getEntity(idx);
+        InsectType type = insect.getType();
+        int x = insect.entityPosition.getX();
+        int y = insect.entityPosition.getY();
+        int stride = type.getStride();
+        Direction dir = insect.getBestDirection(board, boardSize);
+        if (board.getVisibleFoodValue(x, y, dir, stride, boardSize) <= 0) {
+            sleep(idx, type, x, y);
+            return;
+        }
+        int gatheredValue = insect.travelDirection(dir, board, boardSize);
+        gathered[idx] += gatheredValue;
+        foodEaten += gatheredValue;
+        int xStep = dir.getXBias() * stride;
+        int yStep = dir.getYBias() * stride;
+        // The travel may end outside the board or on an insect of the same color, so the insect lands before
+        int cell = Math.min(board.getLastTravelSteps(), cellsInside(x, y, xStep, yStep));
+        while (cell > 0 && board.isOccupied(x + xStep * cell, y + yStep * cell)) {
+            cell -= 1;
+        }
+        if (cell > 0) {
+            board.moveEntity(idx, x + xStep * cell, y + yStep * cell);
+            moves += 1;
+        }
+        if (cell > 0 || gatheredValue > 0) {
+            nextAwake.set(idx);
+        } else {
+            sleep(idx, type, x, y);
+        }
+    }
+
+    /**
+     * Counts the cells of a ray that lie on the board.
+     *
+     * @param x the x-coordinate of the start
+     * @param y the y-coordinate of the start
+     * @param xStep the x-offset between two cells of the ray
+     * @param yStep the y-offset between two cells of the ray
+     * @return the number of cells on the board, the start excluded
+     */
+    private int cellsInside(int x, int y, int xStep, int yStep) {
+        int cells = Integer.MAX_VALUE;
+        if (xStep != 0) {
+            cells = xStep > 0 ? (boardSize - x) / xStep : (x - 1) / -xStep;
+        }
+        if (yStep != 0) {
+            cells = Math.min(cells, yStep > 0 ? (boardSize - y) / yStep : (y - 1) / -yStep);
+        }
+        return cells;
+    }
+
+    /**
+     * Puts an insect to sleep on every line its rays run along.
+     *
+     * @param idx the index of the insect
+     * @param type the type of the insect
+     * @param x the x-coordinate of the insect
+     * @param y the y-coordinate of the insect
+     */
+    private void sleep(int idx, InsectType type, int x, int y) {
+        asleep[idx] = true;
+        sleepEpochs[idx] += 1;
+        long entry = (long) sleepEpochs[idx] << 32 | idx;
+        int families = 0;
+        for (int i = 0; i < type.getDirectionCount(); ++i) {
+            Direction dir = type.getDirection(i);
+            int family = FoodRayIndex.familyOf(dir.getXBias(), dir.getYBias());
+            if ((families & 1 << family) == 0) {
+                families |= 1 << family;
+                addSleeper(family, FoodRayIndex.lineOf(boardSize, family, x, y), entry);
+            }
+        }
+    }
+
+    /**
+     * Adds a sleeper to a line, dropping the sleepers that woke up on another line before growing the list.
+     *
+     * @param family the family of the line
+     * @param line the line within its family
+     * @param entry the packed sleeper
+     */
+    private void addSleeper(int family, int line, long entry) {
+        long[] entries = sleepers[family][line];
+        int count = sleeperCounts[family][line];
+        if (entries == null) {
+            entries = new long[4];
+        } else if (count == entries.length) {
+            int kept = 0;
+            for (int i = 0; i < count; ++i) {
+                if (isAsleep(entries[i])) {
+                    entries[kept++] = entries[i];
+                }
+            }
+            count = kept;
+            if (count > entries.length / 2) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+        }
+        entries[count] = entry;
+        sleepers[family][line] = entries;
+        sleeperCounts[family][line] = count + 1;
+    }
+
+    /**
+     * Checks if a packed sleeper is still asleep since it was added.
+     *
+     * @param entry the packed sleeper
+     * @return true if the insect has not woken up since, false otherwise
+     */
+    private boolean isAsleep(long entry) {
+        int idx = (int) entry;
+        return asleep[idx] && sleepEpochs[idx] == (int) (entry >>> 32);
+    }
+
+    /**
+     * Wakes up the insects sleeping on a line for the next turn they can take, in this tick if their turn
+     * has not come yet.
+     *
+     * @param family the family of the line
+     * @param line the line within its family
+     */
+    @Override
+    public void lineChanged(int family, int line) {
+        long[] entries = sleepers[family][line];
+        int count = sleeperCounts[family][line];
+        for (int i = 0; i < count; ++i) {
+            if (isAsleep(entries[i])) {
+                int idx = (int) entries[i];
+                asleep[idx] = false;
+                (idx > playing ? awake : nextAwake).set(idx);
+                wakeups += 1;
+            }
+        }
+        sleeperCounts[family][line] = 0;
+    }
+
+    /**
+     * Gets the number of ticks played.
+     *
+     * @return the number of ticks
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Gets the number of times an insect moved to another cell.
+     *
+     * @return the number of moves
+     */
+    public long getMoves() {
+        return moves;
+    }
+
+    /**
+     * Gets the number of times a sleeping insect woke up.
+     *
+     * @return the number of wakeups
+     */
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    /**
+     * Gets the total food value eaten by all insects.
+     *
+     * @return the food eaten
+     */
+    public long getFoodEaten() {
+        return foodEaten;
+    }
+
+    /**
+     * Gets the number of food points added by respawns.
+     *
+     * @return the number of spawned food points
+     */
+    public long getFoodSpawned() {
+        return foodSpawned;
+    }
+
+    /**
+     * Gets the number of insects that take a turn in the next tick, besides those woken up by its respawns.
+     *
+     * @return the number of awake insects
+     */
+    public int getAwakeCount() {
+        return nextAwake.cardinality();
+    }
+
+    /**
+     * Gets the state of every insect in index order, one per line, as its color, type, position
+     * in the order of the input file and the total food value it ate.
+     *
+     * @return the state of the insects
+     */
+    public String getResults() {
+        StringBuilder results = new StringBuilder();
+        for (int idx = 0; idx < insectCount; ++idx) {
+            Insect insect = (Insect) board.getEntity(idx);
+            results.append(insect.getColorName()).append(' ').append(insect.getType().getDisplayName())
+                    .append(' ').append(insect.entityPosition.getY())
+                    .append(' ').append(insect.entityPosition.getX())
+                    .append(' ').append(gathered[idx]).append('\n');
+        }
+        return results.toString();
     }
 }
 
 /**
- * Represents the possible movement directions for insects.
+ * Listener told when the entity visible on a cell changes, for every line through the cell.
  */
-enum Direction {
-    N("North", 0, -1),
-    E("East", 1, 0),
-    S("South", 0, 1),
-    W("West", -1, 0),
-    NE("North-East", 1, -1),
-    SE("South-East", 1, 1),
-    SW("South-West", -1, 1),
-    NW("North-West", -1, -1);
+interface LineChangeListener {
+    /**
+     * Called when the entity visible on a cell of a line was added, removed or moved.
+     *
+     * @param family the family of the line, as numbered by FoodRayIndex
+     * @param line the line within its family
+     */
+    void lineChanged(int family, int line);
+}
 
-    private final String textRepresentation;
-    private final int xBias;
-    private final int yBias;
+/**
+ * Represents the game board containing all entities.
+ */
+class Board {
+    private static final long MAX_GRID_CELLS = 1L << 26;
+    private static final SimulationMetrics METRICS = SimulationMetrics.INSTANCE;
 
-    Direction(String text, int xBias, int yBias) {
-        this.textRepresentation = text;
-        this.xBias = xBias;
-        this.yBias = yBias;
+    private EntityStore boardData;
+    private CellIndex positionIndex;
+    private boolean hasSharedPositions = false;
+    private FoodRayIndex foodRayIndex = null;
+    private InsectOccupancy insectOccupancy = null;
+    private DenseFoodGrid foodGrid = null;
+    private RayStrategy rayStrategy = RayStrategy.INDEX;
+    private int[][] lineVersions = null;
+    private LineChangeListener lineChangeListener = null;
+    private int[] freeFoodSlots = null;
+    private int freeFoodSlotCount = 0;
+    private int lastTravelSteps = 0;
+    private int size;
+    private int firstIdxOfFood = -1;
+    private int lastIdxOfInsect = -1;
+    private int lastIdx = 0;
+
+    /**
+     * Creates a new Board with the specified size.
+     *
+     * @param boardSize the size of the board
+     */
+    public Board(int boardSize) {
+        this(boardSize, new ObjectEntityStore(), new PositionIndex());
     }
 
     /**
-     * Moves the given entity position one step in this direction.
+     * Creates a new Board with the specified size and storage.
      *
-     * @param entityPosition the position to move
+     * @param boardSize the size of the board
+     * @param entityStore the store for the entities
+     * @param positionIndex the index from positions to entity indices
      */
-    public void nextStep(EntityPosition entityPosition) {
-        entityPosition.moveX(xBias);
-        entityPosition.moveY(yBias);
+    public Board(int boardSize, EntityStore entityStore, CellIndex positionIndex) {
+        this.size = boardSize;
+        this.boardData = entityStore;
+        this.positionIndex = positionIndex;
+    }
+
+    /**
+     * Creates a new Board that keeps its entities in primitive arrays.
+     * Positions on and next to the board are indexed by a dense grid when it is small enough.
+     *
+     * @param boardSize the size of the board
+     * @param capacity the expected number of entities
+     * @return the new board
+     */
+    public static Board createCompact(int boardSize, int capacity) {
+        long gridWidth = boardSize + 4L;
+        CellIndex cellIndex = gridWidth * gridWidth <= MAX_GRID_CELLS
+                ? new GridCellIndex(boardSize) : new PositionIndex();
+        return new Board(boardSize, new CompactEntityStore(capacity), cellIndex);
+    }
+
+    /**
+     * Creates a new Board that keeps its entities and its cell grid off-heap in memory-mapped files.
+     * Ray sums walk the off-heap grid instead of building an on-heap index, so the heap stays small.
+     *
+     * @param boardSize the size of the board
+     * @param capacity the expected number of entities
+     * @param directory the directory for the backing files
+     * @return the new board
+     * @throws IOException if the backing files cannot be created
+     */
+    public static Board createOffHeap(int boardSize, int capacity, File directory) throws IOException {
+        Board board = new Board(boardSize, new OffHeapEntityStore(capacity, directory),
+                new OffHeapCellIndex(boardSize, directory));
+        board.rayStrategy = RayStrategy.WALK;
+        return board;
+    }
+
+    /**
+     * Sets how the board sums the visible food on rays.
+     * A board too large for a dense grid keeps using the index instead.
+     *
+     * @param rayStrategy the ray strategy
+     */
+    public void setRayStrategy(RayStrategy rayStrategy) {
+        this.rayStrategy = rayStrategy == RayStrategy.GRID && !DenseFoodGrid.fits(size)
+                ? RayStrategy.INDEX : rayStrategy;
+    }
+
+    /**
+     * Gets the way rays are summed and travelled on the board.
+     *
+     * @return the ray strategy
+     */
+    public RayStrategy getRayStrategy() {
+        return rayStrategy;
+    }
+
+    /**
+     * Sets the listener told about the changes of the visible entities.
+     *
+     * @param lineChangeListener the listener, or null for none
+     */
+    public void setLineChangeListener(LineChangeListener lineChangeListener) {
+        this.lineChangeListener = lineChangeListener;
+    }
+
+    /**
+     * Starts counting the changes of the visible food on every line of the board.
+     * Every family of lines is counted, so that a ray in any direction can be checked.
+     */
+    public void trackLineChanges() {
+        lineVersions = new int[FoodRayIndex.FAMILIES][];
+        for (int family = 0; family < FoodRayIndex.FAMILIES; ++family) {
+            lineVersions[family] = new int[FoodRayIndex.lineCount(size, family)];
+        }
+    }
+
+    /**
+     * Gets the number of times the visible food on the line through a cell changed since the changes are tracked.
+     *
+     * @param x the x-coordinate of the cell
+     * @param y the y-coordinate of the cell
+     * @param dir a direction along the line
+     * @return the number of changes, 0 if the line does not cross the board or changes are not tracked
+     */
+    public int getLineVersion(int x, int y, Direction dir) {
+        if (lineVersions == null) {
+            return 0;
+        }
+        int family = FoodRayIndex.familyOf(dir.getXBias(), dir.getYBias());
+        int line = FoodRayIndex.lineOf(size, family, x, y);
+        return line < 0 ? 0 : lineVersions[family][line];
+    }
+
+    /**
+     * Counts a change of the visible food at a cell on every line through it.
+     *
+     * @param x the x-coordinate of the cell
+     * @param y the y-coordinate of the cell
+     */
+    private void markFoodChanged(int x, int y) {
+        if (lineVersions != null) {
+            for (int family = 0; family < FoodRayIndex.FAMILIES; ++family) {
+                int line = FoodRayIndex.lineOf(size, family, x, y);
+                if (line >= 0) {
+                    lineVersions[family][line] += 1;
+                }
+            }
+        }
+        notifyLinesChanged(x, y);
+    }
+
+    /**
+     * Tells the listener, if any, about a change of the visible entity at a cell.
+     *
+     * @param x the x-coordinate of the cell
+     * @param y the y-coordinate of the cell
+     */
+    private void notifyLinesChanged(int x, int y) {
+        if (lineChangeListener == null) {
+            return;
+        }
+        for (int family = 0; family < FoodRayIndex.FAMILIES; ++family) {
+            int line = FoodRayIndex.lineOf(size, family, x, y);
+            if (line >= 0) {
+                lineChangeListener.lineChanged(family, line);
+            }
+        }
+    }
+
+    /**
+     * Builds the ray sum index or the food grid now if the board uses one, so that rays can then be read
+     * from several threads.
+     */
+    public void prepareRays() {
+        if (rayStrategy == RayStrategy.INDEX) {
+            foodRayIndex();
+        } else if (rayStrategy == RayStrategy.GRID) {
+            foodGrid();
+        }
+    }
+
+    /**
+     * Adds an entity to the board.
+     *
+     * @param entity the entity to add
+     */
+    public void addEntity(BoardEntity entity) {
+        if (freeFoodSlotCount > 0 && entity instanceof FoodPoint foodPoint && !hasSharedPositions
+                && positionIndex.get(entity.entityPosition.getX(), entity.entityPosition.getY()) < 0) {
+            reuseFoodSlot(foodPoint);
+            return;
+        }
+        if (firstIdxOfFood == -1 && entity instanceof FoodPoint) {
+            firstIdxOfFood = lastIdx;
+            lastIdxOfInsect = lastIdx - 1;
+        }
+        boardData.add(entity);
+        int x = entity.entityPosition.getX();
+        int y = entity.entityPosition.getY();
+        // The first entity added to a position stays the visible one, as with a scan in index order
+        if (!positionIndex.putIfAbsent(x, y, lastIdx)) {
+            hasSharedPositions = true;
+        } else if (entity instanceof FoodPoint foodPoint) {
+            if (foodGrid != null) {
+                foodGrid.set(x, y, foodPoint.getValue());
+            }
+            markFoodChanged(x, y);
+        } else {
+            notifyLinesChanged(x, y);
+        }
+        foodRayIndex = null;
+        insectOccupancy = null;
+        lastIdx += 1;
+    }
+
+    /**
+     * Makes the board store food points added later in the slots of removed ones, so a board where food
+     * keeps being eaten and added again stays within a fixed number of slots. Only food added to an empty
+     * cell of a board without shared positions takes a removed slot, since it is then the visible entity
+     * of its cell whatever its index.
+     */
+    public void reuseRemovedFoodSlots() {
+        if (freeFoodSlots != null) {
+            return;
+        }
+        freeFoodSlots = new int[16];
+        for (int i = Math.max(firstIdxOfFood, lastIdxOfInsect + 1); firstIdxOfFood >= 0 && i < lastIdx; ++i) {
+            if (!boardData.isPresent(i)) {
+                freeFoodSlot(i);
+            }
+        }
     }
 
     /**
-     * Gets the text representation of this direction.
+     * Records the slot of a removed food point as free.
      *
-     * @return the text representation (e.g., "North", "South-East")
+     * @param idx the index of the slot
      */
-    public String getTextRepresentation() {
-        return textRepresentation;
+    private void freeFoodSlot(int idx) {
+        if (freeFoodSlotCount == freeFoodSlots.length) {
+            freeFoodSlots = Arrays.copyOf(freeFoodSlots, freeFoodSlotCount * 2);
+        }
+        freeFoodSlots[freeFoodSlotCount] = idx;
+        freeFoodSlotCount += 1;
     }
-}
-
-// Interfaces
 
-/**
- * Interface for entities that can move in orthogonal directions (N, E, S, W).
- */
-interface OrthogonalMoving {
     /**
-     * Calculates the total visible food value in the given orthogonal direction.
+     * Stores a food point in the most recently freed slot, at an empty cell.
      *
-     * @param dir the direction to check
-     * @param entityPosition the starting position
-     * @param boardData the game board
-     * @param boardSize the size of the board
-     * @return the total food value visible in the given direction
+     * @param foodPoint the food point
      */
-    default int getOrthogonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition,
-                                                   Board boardData, int boardSize) {
-        int visibleValue = 0;
-        EntityPosition curPosition = entityPosition.copy();
-        while (0 < curPosition.getX() && curPosition.getX() < boardSize + 1
-                && 0 < curPosition.getY() && curPosition.getY() < boardSize + 1) {
-            dir.nextStep(curPosition);
-            BoardEntity boardEntity = boardData.getEntity(curPosition);
-            if (boardEntity instanceof FoodPoint foodPoint) {
-                visibleValue += foodPoint.getValue();
-            }
+    private void reuseFoodSlot(FoodPoint foodPoint) {
+        freeFoodSlotCount -= 1;
+        int idx = freeFoodSlots[freeFoodSlotCount];
+        int x = foodPoint.entityPosition.getX();
+        int y = foodPoint.entityPosition.getY();
+        boardData.set(idx, foodPoint);
+        positionIndex.putIfAbsent(x, y, idx);
+        if (foodGrid != null) {
+            foodGrid.set(x, y, foodPoint.getValue());
         }
-        return visibleValue;
+        if (foodRayIndex != null) {
+            foodRayIndex.add(x, y, foodPoint.getValue(), 1);
+        }
+        markFoodChanged(x, y);
     }
 
     /**
-     * Simulates traveling in an orthogonal direction.
+     * Appends an entity slot read from a board snapshot, without the bookkeeping of addEntity.
+     * A removed slot keeps its index but holds no entity.
      *
-     * @param dir the direction to travel
-     * @param entityPosition the starting position
-     * @param insectColor the color of the insect
-     * @param boardData the game board
-     * @param boardSize the size of the board
-     * @return the amount of food eaten during travel
+     * @param entity the entity, or a placeholder for a removed slot
+     * @param removed true if the slot was removed when the snapshot was taken
      */
-    default int travelOrthogonally(Direction dir, EntityPosition entityPosition, InsectColor insectColor,
-                                   Board boardData, int boardSize) {
-        return 1;
+    void restoreEntity(BoardEntity entity, boolean removed) {
+        boardData.add(entity);
+        int x = entity.entityPosition.getX();
+        int y = entity.entityPosition.getY();
+        if (removed) {
+            boardData.remove(lastIdx);
+        } else if (!positionIndex.putIfAbsent(x, y, lastIdx)) {
+            hasSharedPositions = true;
+        }
+        lastIdx += 1;
     }
-}
 
-/**
- * Interface for entities that can move in diagonal directions (NE, SE, SW, NW).
- */
-interface DiagonalMoving {
     /**
-     * Calculates the total visible food value in the given diagonal direction.
+     * Sets the order of the entities read from a board snapshot.
      *
-     * @param dir the direction to check
-     * @param entityPosition the starting position
-     * @param boardData the game board
-     * @param boardSize the size of the board
-     * @return the total food value visible in the given direction
+     * @param firstIdxOfFood the index of the first food point, or -1 if there is none
+     * @param lastIdxOfInsect the index of the last insect
+     * @param hasSharedPositions true if two entities were ever added at the same position
      */
-    default int getDiagonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition,
-                                                 Board boardData, int boardSize) {
-        int visibleValue = 0;
-        EntityPosition curPosition = entityPosition.copy();
-        while (0 < curPosition.getX() && curPosition.getX() < boardSize + 1
-                && 0 < curPosition.getY() && curPosition.getY() < boardSize + 1) {
-            dir.nextStep(curPosition);
-            BoardEntity boardEntity = boardData.getEntity(curPosition);
-            if (boardEntity instanceof FoodPoint foodPoint) {
-                visibleValue += foodPoint.getValue();
-            }
-        }
-        return visibleValue;
+    void restoreOrder(int firstIdxOfFood, int lastIdxOfInsect, boolean hasSharedPositions) {
+        this.firstIdxOfFood = firstIdxOfFood;
+        this.lastIdxOfInsect = lastIdxOfInsect;
+        this.hasSharedPositions |= hasSharedPositions;
     }
 
     /**
-     * Simulates traveling in a diagonal direction.
+     * Checks if an entity is visible at a cell.
      *
-     * @param dir the direction to travel
-     * @param entityPosition the starting position
-     * @param insectColor the color of the insect
-     * @param boardData the game board
-     * @param boardSize the size of the board
-     * @return the amount of food eaten during travel
+     * @param x the x-coordinate of the cell
+     * @param y the y-coordinate of the cell
+     * @return true if the cell holds an entity, false otherwise
      */
-    default int travelDiagonally(Direction dir, EntityPosition entityPosition, InsectColor insectColor,
-                                 Map<String, BoardEntity> boardData, int boardSize) {
-        return 1;
+    public boolean isOccupied(int x, int y) {
+        return positionIndex.get(x, y) >= 0;
     }
-}
-
-// Classes
-
-/**
- * Represents a position on the game board with x and y coordinates.
- */
-class EntityPosition {
-    private int x;
-    private int y;
 
     /**
-     * Creates a new EntityPosition with the given coordinates.
+     * Moves a visible insect to an empty cell, keeping its index.
+     * Boards with shared positions are not supported, as the insect could uncover another entity.
      *
-     * @param x the x-coordinate
-     * @param y the y-coordinate
+     * @param idx the index of the insect
+     * @param x the x-coordinate of the target cell
+     * @param y the y-coordinate of the target cell
+     * @throws IllegalArgumentException if the index is not a visible insect or the target cell is occupied
      */
-    public EntityPosition(int x, int y) {
-        this.x = x;
-        this.y = y;
+    public void moveEntity(int idx, int x, int y) {
+        if (hasSharedPositions || !boardData.isPresent(idx) || boardData.isFood(idx)) {
+            throw new IllegalArgumentException("Only a visible insect can be moved");
+        }
+        int fromX = boardData.getX(idx);
+        int fromY = boardData.getY(idx);
+        if (positionIndex.get(x, y) >= 0) {
+            throw new IllegalArgumentException("The cell " + x + " " + y + " is occupied");
+        }
+        positionIndex.remove(fromX, fromY);
+        boardData.setPosition(idx, x, y);
+        positionIndex.putIfAbsent(x, y, idx);
+        if (insectOccupancy != null) {
+            insectOccupancy.set(fromX, fromY, boardData.getColor(idx), false);
+            insectOccupancy.set(x, y, boardData.getColor(idx), true);
+        }
+        notifyLinesChanged(fromX, fromY);
+        notifyLinesChanged(x, y);
     }
 
     /**
-     * Gets the x-coordinate.
+     * Gets the entity at the specified position.
+     * If several entities share the position, the one with the lowest index is returned.
      *
-     * @return the x-coordinate
+     * @param seekPosition the position to check
+     * @return the entity at the position, or null if no entity found
      */
-    public int getX() {
-        return x;
+    public BoardEntity getEntity(EntityPosition seekPosition) {
+        METRICS.addEntityLookup();
+        int idx = positionIndex.get(seekPosition.getX(), seekPosition.getY());
+        if (idx < 0) {
+            return null;
+        }
+        return boardData.get(idx);
     }
 
     /**
-     * Gets the y-coordinate.
+     * Gets the entity at the specified index.
      *
-     * @return the y-coordinate
+     * @param idx the index of the entity
+     * @return the entity at the index
      */
-    public int getY() {
-        return y;
+    public BoardEntity getEntity(int idx) {
+        METRICS.addEntityLookup();
+        return boardData.get(idx);
     }
 
     /**
-     * Moves the position along the x-axis by the given bias.
+     * Removes the entity at the specified index.
      *
-     * @param bias the amount to move
+     * @param idx the index of the entity to remove
      */
-    public void moveX(int bias) {
-        x += bias;
+    public void removeEntity(int idx) {
+        if (!boardData.isPresent(idx)) {
+            return;
+        }
+        int x = boardData.getX(idx);
+        int y = boardData.getY(idx);
+        boolean isFood = boardData.isFood(idx);
+        int foodValue = isFood ? boardData.getFoodValue(idx) : 0;
+        InsectColor insectColor = isFood ? null : boardData.getColor(idx);
+        boardData.remove(idx);
+        if (isFood) {
+            METRICS.addFoodRemoved();
+            if (freeFoodSlots != null) {
+                freeFoodSlot(idx);
+            }
+        }
+        if (positionIndex.get(x, y) != idx) {
+            return;
+        }
+        positionIndex.remove(x, y);
+        if (isFood) {
+            markFoodChanged(x, y);
+        } else {
+            notifyLinesChanged(x, y);
+        }
+        if (foodRayIndex != null && isFood) {
+            foodRayIndex.add(x, y, -foodValue, -1);
+        }
+        if (foodGrid != null && isFood) {
+            foodGrid.set(x, y, 0);
+        }
+        if (insectOccupancy != null && !isFood) {
+            insectOccupancy.set(x, y, insectColor, false);
+        }
+        if (hasSharedPositions) {
+            // Another entity may have been hidden under the removed one
+            for (int i = idx + 1; i < lastIdx; ++i) {
+                if (boardData.isPresent(i) && boardData.getX(i) == x && boardData.getY(i) == y) {
+                    positionIndex.putIfAbsent(x, y, i);
+                    if (boardData.isFood(i)) {
+                        markFoodChanged(x, y);
+                    }
+                    if (foodRayIndex != null && boardData.isFood(i)) {
+                        foodRayIndex.add(x, y, boardData.getFoodValue(i), 1);
+                    }
+                    if (foodGrid != null && boardData.isFood(i)) {
+                        foodGrid.set(x, y, boardData.getFoodValue(i));
+                    }
+                    if (insectOccupancy != null && !boardData.isFood(i)) {
+                        insectOccupancy.set(x, y, boardData.getColor(i), true);
+                    }
+                    break;
+                }
+            }
+        }
     }
 
     /**
-     * Moves the position along the y-axis by the given bias.
+     * Removes the entity at the specified position.
      *
-     * @param bias the amount to move
+     * @param seekPosition the position of the entity to remove
      */
-    public void moveY(int bias) {
-        y += bias;
+    public void removeEntity(EntityPosition seekPosition) {
+        int idx = positionIndex.get(seekPosition.getX(), seekPosition.getY());
+        if (idx >= 0) {
+            removeEntity(idx);
+        }
     }
 
     /**
-     * Creates a copy of this position.
+     * Checks if any two entities were added at the same position.
      *
-     * @return a new EntityPosition with the same coordinates
+     * @return true if some position holds more than one entity, false otherwise
      */
-    public EntityPosition copy() {
-        return new EntityPosition(getX(), getY());
+    public boolean hasSharedPositions() {
+        return hasSharedPositions;
     }
-}
-
-/**
- * Abstract base class for all entities on the game board.
- */
-abstract class BoardEntity {
-    protected EntityPosition entityPosition;
 
     /**
-     * Creates a new BoardEntity at the given position.
+     * Calculates the total visible food value on a ray starting next to the given position.
+     * The ray visits every stride-th cell up to and including the first cell outside the board.
      *
-     * @param entityPosition the position of the entity
+     * @param entityPosition the starting position
+     * @param dir the direction of the ray
+     * @param stride the number of steps made between two visited cells
+     * @param boardSize the size of the board
+     * @return the total food value visible on the ray
      */
-    public BoardEntity(EntityPosition entityPosition) {
-        this.entityPosition = entityPosition;
+    public int getVisibleFoodValue(EntityPosition entityPosition, Direction dir, int stride, int boardSize) {
+        return getVisibleFoodValue(entityPosition.getX(), entityPosition.getY(), dir, stride, boardSize);
     }
-}
-
-/**
- * Represents a food point on the game board with a specific value.
- */
-class FoodPoint extends BoardEntity {
-    private int value;
 
     /**
-     * Creates a new FoodPoint at the given position with the specified value.
+     * Calculates the total visible food value on a ray starting next to the given cell.
      *
-     * @param position the position of the food point
-     * @param value the food value
+     * @param x the x-coordinate of the start
+     * @param y the y-coordinate of the start
+     * @param dir the direction of the ray
+     * @param stride the number of steps made between two visited cells
+     * @param boardSize the size of the board
+     * @return the total food value visible on the ray
      */
-    public FoodPoint(EntityPosition position, int value) {
-        super(position);
-        this.value = value;
+    public int getVisibleFoodValue(int x, int y, Direction dir, int stride, int boardSize) {
+        if (rayStrategy == RayStrategy.GRID && boardSize == size && stride >= 1 && stride <= 2
+                && (dir.getXBias() == 0 || dir.getYBias() == 0)) {
+            return foodGrid().sum(x, y, dir.getXBias(), dir.getYBias(), stride);
+        }
+        if (rayStrategy != RayStrategy.INDEX || boardSize != size || stride < 1 || stride > 2) {
+            return walkVisibleFoodValue(x, y, dir, stride, boardSize);
+        }
+        return foodRayIndex().sum(x, y, dir.getXBias(), dir.getYBias(), stride);
     }
 
     /**
-     * Gets the food value of this point.
+     * Calculates the visible food value on a ray by visiting its cells one by one.
      *
-     * @return the food value
+     * @param x the x-coordinate of the start
+     * @param y the y-coordinate of the start
+     * @param dir the direction of the ray
+     * @param stride the number of steps made between two visited cells
+     * @param boardSize the size of the board
+     * @return the total food value visible on the ray
      */
-    public int getValue() {
-        return value;
+    private int walkVisibleFoodValue(int x, int y, Direction dir, int stride, int boardSize) {
+        int visibleValue = 0;
+        int cells = 0;
+        int xStep = dir.getXBias() * stride;
+        int yStep = dir.getYBias() * stride;
+        while (0 < x && x < boardSize + 1 && 0 < y && y < boardSize + 1) {
+            x += xStep;
+            y += yStep;
+            cells += 1;
+            int idx = positionIndex.get(x, y);
+            if (idx >= 0 && boardData.isFood(idx)) {
+                visibleValue += boardData.getFoodValue(idx);
+            }
+        }
+        METRICS.addRay(cells);
+        return visibleValue;
     }
-}
-
-/**
- * Represents the game board containing all entities.
- */
-class Board {
-    private Map<Integer, BoardEntity> boardData = new HashMap<>();
-    private int size;
-    private int firstIdxOfFood = -1;
-    private int lastIdxOfInsect = -1;
-    private int lastIdx = 0;
 
     /**
-     * Creates a new Board with the specified size.
+     * Moves an insect along a ray, eating the visible food points on the visited cells.
+     * The ray visits every stride-th cell up to and including the first cell outside the board,
+     * passes insects of the same color and stops at an insect of another color.
+     * When the board is indexed, only the cells holding food before the first blocking insect are visited,
+     * and the walk stops once the last food point on the ray is eaten.
      *
+     * @param x the x-coordinate of the insect
+     * @param y the y-coordinate of the insect
+     * @param dir the direction of the ray
+     * @param stride the number of steps made between two visited cells
+     * @param insectColor the color of the insect
      * @param boardSize the size of the board
+     * @return the amount of food eaten
      */
-    public Board(int boardSize) {
-        this.size = boardSize;
+    public int travel(int x, int y, Direction dir, int stride, InsectColor insectColor, int boardSize) {
+        if (rayStrategy != RayStrategy.INDEX || boardSize != size || stride < 1 || stride > 2) {
+            return walkTravel(x, y, dir, stride, insectColor, boardSize);
+        }
+        FoodRayIndex index = foodRayIndex();
+        int xStep = dir.getXBias() * stride;
+        int yStep = dir.getYBias() * stride;
+        int remainingFood = index.count(x, y, dir.getXBias(), dir.getYBias(), stride);
+        int length = index.length(x, y, dir.getXBias(), dir.getYBias(), stride);
+        int blockingCell = insectOccupancy.firstBlockingCell(x, y, dir.getXBias(), dir.getYBias(), stride,
+                insectColor);
+        int lastCell = Math.min(length, blockingCell - 1);
+        lastTravelSteps = lastCell;
+        if (blockingCell <= length) {
+            METRICS.addInsectBlocked();
+        }
+        int gatheredValue = 0;
+        int cell = 0;
+        int cells = 0;
+        while (remainingFood > 0) {
+            cell = index.nextFoodCell(x, y, dir.getXBias(), dir.getYBias(), stride, cell);
+            if (cell > lastCell) {
+                break;
+            }
+            cells += 1;
+            int idx = positionIndex.get(x + xStep * cell, y + yStep * cell);
+            if (idx >= 0 && boardData.isFood(idx)) {
+                gatheredValue += boardData.getFoodValue(idx);
+                // Food revealed under the eaten one stays, as the walk visits every cell once
+                removeEntity(idx);
+                remainingFood -= 1;
+            }
+        }
+        METRICS.addRay(cells);
+        return gatheredValue;
     }
 
     /**
-     * Adds an entity to the board.
+     * Gets the number of cells the last travel moved, up to the first cell outside the board
+     * or to the cell before the insect that stopped it.
      *
-     * @param entity the entity to add
+     * @return the number of cells moved by the last travel
      */
-    public void addEntity(BoardEntity entity) {
-        if (firstIdxOfFood == -1 && entity instanceof FoodPoint) {
-            firstIdxOfFood = lastIdx;
-            lastIdxOfInsect = lastIdx - 1;
-        }
-        boardData.put(lastIdx, entity);
-        lastIdx += 1;
+    public int getLastTravelSteps() {
+        return lastTravelSteps;
     }
 
     /**
-     * Gets the entity at the specified position.
+     * Moves an insect along a ray by visiting its cells one by one.
      *
-     * @param seekPosition the position to check
-     * @return the entity at the position, or null if no entity found
+     * @param x the x-coordinate of the insect
+     * @param y the y-coordinate of the insect
+     * @param dir the direction of the ray
+     * @param stride the number of steps made between two visited cells
+     * @param insectColor the color of the insect
+     * @param boardSize the size of the board
+     * @return the amount of food eaten
      */
-    public BoardEntity getEntity(EntityPosition seekPosition) {
-        for (int i = 0; i < lastIdx; ++i) {
-            BoardEntity boardEntity = boardData.get(i);
-            if (boardEntity == null) {
+    private int walkTravel(int x, int y, Direction dir, int stride, InsectColor insectColor, int boardSize) {
+        int gatheredValue = 0;
+        int cells = 0;
+        int xStep = dir.getXBias() * stride;
+        int yStep = dir.getYBias() * stride;
+        while (0 < x && x < boardSize + 1 && 0 < y && y < boardSize + 1) {
+            x += xStep;
+            y += yStep;
+            cells += 1;
+            int idx = positionIndex.get(x, y);
+            if (idx < 0) {
                 continue;
             }
-            EntityPosition curEntityPosition = boardEntity.entityPosition;
-            if (curEntityPosition.getX() == seekPosition.getX()
-                    && curEntityPosition.getY() == seekPosition.getY()) {
-                return boardData.get(i);
+            if (boardData.isFood(idx)) {
+                gatheredValue += boardData.getFoodValue(idx);
+                removeEntity(idx);
+            } else if (boardData.getColor(idx) != insectColor) {
+                METRICS.addInsectBlocked();
+                lastTravelSteps = cells - 1;
+                METRICS.addRay(cells);
+                return gatheredValue;
             }
         }
-        return null;
+        lastTravelSteps = cells;
+        METRICS.addRay(cells);
+        return gatheredValue;
     }
 
     /**
-     * Gets the entity at the specified index.
+     * Builds the ray sum index over the food points currently visible on the board.
      *
-     * @param idx the index of the entity
-     * @return the entity at the index
+     * @return the new index
      */
-    public BoardEntity getEntity(int idx) {
-        return boardData.get(idx);
+    private FoodRayIndex buildFoodRayIndex() {
+        int[] xs = new int[lastIdx];
+        int[] ys = new int[lastIdx];
+        int[] values = new int[lastIdx];
+        boolean[] visible = new boolean[lastIdx];
+        int count = 0;
+        for (int i = 0; i < lastIdx; ++i) {
+            if (boardData.isPresent(i) && boardData.isFood(i)) {
+                xs[count] = boardData.getX(i);
+                ys[count] = boardData.getY(i);
+                values[count] = boardData.getFoodValue(i);
+                // Food hidden under another entity gets a slot, so it can be revealed later
+                visible[count] = positionIndex.get(xs[count], ys[count]) == i;
+                count += 1;
+            }
+        }
+        return new FoodRayIndex(size, xs, ys, values, visible, count);
     }
 
     /**
-     * Removes the entity at the specified index.
+     * Builds the occupancy bitsets over the insects currently visible on the board.
      *
-     * @param idx the index of the entity to remove
+     * @return the new occupancy
      */
-    public void removeEntity(int idx) {
-        boardData.remove(idx);
+    private InsectOccupancy buildInsectOccupancy() {
+        InsectOccupancy occupancy = new InsectOccupancy(size);
+        for (int i = 0; i < lastIdx; ++i) {
+            if (boardData.isPresent(i) && !boardData.isFood(i)
+                    && positionIndex.get(boardData.getX(i), boardData.getY(i)) == i) {
+                occupancy.set(boardData.getX(i), boardData.getY(i), boardData.getColor(i), true);
+            }
+        }
+        return occupancy;
     }
 
     /**
-     * Removes the entity at the specified position.
+     * Gets the food grid, building it over the food points currently visible if the board changed
+     * since it was last used.
      *
-     * @param seekPosition the position of the entity to remove
+     * @return the food grid
      */
-    public void removeEntity(EntityPosition seekPosition) {
-        for (int i = 0; i < lastIdx; ++i) {
-            BoardEntity boardEntity = boardData.get(i);
-            if (boardEntity == null) {
-                continue;
-            }
-            EntityPosition curEntityPosition = boardEntity.entityPosition;
-            if (curEntityPosition.getX() == seekPosition.getX()
-                    && curEntityPosition.getY() == seekPosition.getY()) {
-                boardData.remove(i);
-                break;
+    private DenseFoodGrid foodGrid() {
+        if (foodGrid == null) {
+            DenseFoodGrid grid = new DenseFoodGrid(size);
+            for (int i = 0; i < lastIdx; ++i) {
+                if (boardData.isPresent(i) && boardData.isFood(i)
+                        && positionIndex.get(boardData.getX(i), boardData.getY(i)) == i) {
+                    grid.set(boardData.getX(i), boardData.getY(i), boardData.getFoodValue(i));
+                }
             }
+            foodGrid = grid;
+        }
+        return foodGrid;
+    }
+
+    /**
+     * Gets the ray sum index, building it and the insect occupancy if the board changed since they were last used.
+     *
+     * @return the ray sum index
+     */
+    private FoodRayIndex foodRayIndex() {
+        if (foodRayIndex == null) {
+            foodRayIndex = buildFoodRayIndex();
+            insectOccupancy = buildInsectOccupancy();
         }
+        return foodRayIndex;
     }
 
     /**
@@ -686,23 +6092,82 @@ class Board {
         return firstIdxOfFood;
     }
 
-    /**
-     * Gets the last index of insect entities.
-     *
-     * @return the last index of insects
-     */
-    public int getLastIdxOfInsect() {
-        return lastIdxOfInsect;
-    }
+    /**
+     * Gets the last index of insect entities.
+     *
+     * @return the last index of insects
+     */
+    public int getLastIdxOfInsect() {
+        return lastIdxOfInsect;
+    }
+
+    /**
+     * Gets the last index of all entities.
+     *
+     * @return the last index
+     */
+    public int getLastIdx() {
+        return lastIdx - 1;
+    }
+
+    /**
+     * Gets the size of the board.
+     *
+     * @return the number of cells on a side of the board
+     */
+    public int getSize() {
+        return size;
+    }
+}
+
+/**
+ * Flight recorder event of an insect choosing the direction to travel in.
+ */
+@Name("gameboard.Decision")
+@Label("Insect Decision")
+@Category("GameBoard")
+@Description("An insect looking along its rays and choosing the one with the most visible food")
+class DecisionEvent extends Event {
+    @Label("Insect Type")
+    String insectType;
+
+    @Label("Color")
+    String color;
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Visible Food")
+    @Description("Total food value visible in the chosen direction")
+    int visibleFood;
+}
+
+/**
+ * Flight recorder event of an insect travelling in its chosen direction.
+ */
+@Name("gameboard.Travel")
+@Label("Insect Travel")
+@Category("GameBoard")
+@Description("An insect moving along a ray and eating the food on it")
+class TravelEvent extends Event {
+    @Label("Insect Type")
+    String insectType;
+
+    @Label("Color")
+    String color;
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Steps")
+    @Description("Cells moved before leaving the board or meeting an insect of another color")
+    int steps;
 
-    /**
-     * Gets the last index of all entities.
-     *
-     * @return the last index
-     */
-    public int getLastIdx() {
-        return lastIdx - 1;
-    }
+    @Label("Food Gathered")
+    int foodGathered;
+
+    @Label("Board Size")
+    int boardSize;
 }
 
 // Insects
@@ -726,12 +6191,48 @@ abstract class Insect extends BoardEntity {
 
     /**
      * Determines the best direction for the insect to move based on visible food.
+     * The directions and the stride come from the insect type; the first direction
+     * with the most visible food wins.
      *
      * @param boardData the game board
      * @param boardSize the size of the board
      * @return the best direction to move
      */
-    public abstract Direction getBestDirection(Board boardData, int boardSize);
+    public Direction getBestDirection(Board boardData, int boardSize) {
+        // Loading an event class sets up the flight recorder, so events are only created once a recording runs
+        DecisionEvent event = FlightRecorder.isInitialized() ? new DecisionEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        InsectType type = getType();
+        int x = entityPosition.getX();
+        int y = entityPosition.getY();
+        Direction bestDirection = type.getDirection(0);
+        int bestValue = boardData.getVisibleFoodValue(x, y, bestDirection, type.getStride(), boardSize);
+        for (int i = 1; i < type.getDirectionCount(); ++i) {
+            Direction dir = type.getDirection(i);
+            int value = boardData.getVisibleFoodValue(x, y, dir, type.getStride(), boardSize);
+            if (value > bestValue) {
+                bestDirection = dir;
+                bestValue = value;
+            }
+        }
+        if (event != null && event.shouldCommit()) {
+            event.insectType = type.name();
+            event.color = insectColor.name();
+            event.direction = bestDirection.name();
+            event.visibleFood = bestValue;
+            event.commit();
+        }
+        return bestDirection;
+    }
+
+    /**
+     * Gets the type of the insect.
+     *
+     * @return the insect type
+     */
+    public abstract InsectType getType();
 
     /**
      * Simulates the insect traveling in the specified direction.
@@ -742,20 +6243,20 @@ abstract class Insect extends BoardEntity {
      * @return the amount of food eaten during travel
      */
     public int travelDirection(Direction dir, Board boardData, int boardSize) {
-        int gatheredValue = 0;
-        EntityPosition curPosition = entityPosition.copy();
-        while (0 < curPosition.getX() && curPosition.getX() < boardSize + 1
-                && 0 < curPosition.getY() && curPosition.getY() < boardSize + 1) {
-            dir.nextStep(curPosition);
-            BoardEntity boardEntity = boardData.getEntity(curPosition);
-            if (boardEntity instanceof FoodPoint foodPoint) {
-                gatheredValue += foodPoint.getValue();
-                boardData.removeEntity(curPosition);
-            } else if (boardEntity instanceof Insect insect) {
-                if (insect.insectColor != this.insectColor) {
-                    break;
-                }
-            }
+        TravelEvent event = FlightRecorder.isInitialized() ? new TravelEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        int gatheredValue = boardData.travel(entityPosition.getX(), entityPosition.getY(), dir,
+                getType().getStride(), insectColor, boardSize);
+        if (event != null && event.shouldCommit()) {
+            event.insectType = getType().name();
+            event.color = insectColor.name();
+            event.direction = dir.name();
+            event.steps = boardData.getLastTravelSteps();
+            event.foodGathered = gatheredValue;
+            event.boardSize = boardSize;
+            event.commit();
         }
         return gatheredValue;
     }
@@ -766,30 +6267,14 @@ abstract class Insect extends BoardEntity {
      * @return the color name as a string
      */
     public String getColorName() {
-        return switch (insectColor) {
-            case BLUE -> "Blue";
-            case RED -> "Red";
-            case GREEN -> "Green";
-            case YELLOW -> "Yellow";
-            default -> throw new RuntimeException("color did not defined");
-        };
-    }
-
-    /**
-     * Gets the class name of the insect instance.
-     *
-     * @param inst the insect instance
-     * @return the simple class name of the insect
-     */
-    public static String defineNameOfInstance(Insect inst) {
-        return inst.getClass().getSimpleName();
+        return insectColor.getDisplayName();
     }
 }
 
 /**
  * Represents a Grasshopper insect that moves by jumping orthogonally.
  */
-class Grasshopper extends Insect implements OrthogonalMoving {
+class Grasshopper extends Insect {
     /**
      * Creates a new Grasshopper at the given position with the specified color.
      *
@@ -801,69 +6286,15 @@ class Grasshopper extends Insect implements OrthogonalMoving {
     }
 
     @Override
-    public int getOrthogonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition,
-                                                  Board boardData, int boardSize) {
-        int visibleValue = 0;
-        EntityPosition curPosition = entityPosition.copy();
-        while (0 < curPosition.getX() && curPosition.getX() < boardSize + 1
-                && 0 < curPosition.getY() && curPosition.getY() < boardSize + 1) {
-            dir.nextStep(curPosition);
-            dir.nextStep(curPosition);
-            BoardEntity boardEntity = boardData.getEntity(curPosition);
-            if (boardEntity instanceof FoodPoint foodPoint) {
-                visibleValue += foodPoint.getValue();
-            }
-        }
-        return visibleValue;
-    }
-
-    @Override
-    public Direction getBestDirection(Board boardData, int boardSize) {
-        int northVal = getOrthogonalDirectionVisibleValue(Direction.N, entityPosition, boardData, boardSize);
-        int eastVal = getOrthogonalDirectionVisibleValue(Direction.E, entityPosition, boardData, boardSize);
-        int southVal = getOrthogonalDirectionVisibleValue(Direction.S, entityPosition, boardData, boardSize);
-        int westVal = getOrthogonalDirectionVisibleValue(Direction.W, entityPosition, boardData, boardSize);
-        int maxValue = Math.max(northVal, Math.max(eastVal, Math.max(southVal, westVal)));
-
-        if (northVal >= maxValue) {
-            return Direction.N;
-        }
-        if (eastVal >= maxValue) {
-            return Direction.E;
-        }
-        if (southVal >= maxValue) {
-            return Direction.S;
-        }
-
-        return Direction.W;
-    }
-
-    @Override
-    public int travelDirection(Direction dir, Board boardData, int boardSize) {
-        int gatheredValue = 0;
-        EntityPosition curPosition = entityPosition.copy();
-        while (0 < curPosition.getX() && curPosition.getX() < boardSize + 1
-                && 0 < curPosition.getY() && curPosition.getY() < boardSize + 1) {
-            dir.nextStep(curPosition);
-            dir.nextStep(curPosition);
-            BoardEntity boardEntity = boardData.getEntity(curPosition);
-            if (boardEntity instanceof FoodPoint foodPoint) {
-                gatheredValue += foodPoint.getValue();
-                boardData.removeEntity(curPosition);
-            } else if (boardEntity instanceof Insect insect) {
-                if (insect.insectColor != this.insectColor) {
-                    break;
-                }
-            }
-        }
-        return gatheredValue;
+    public InsectType getType() {
+        return InsectType.GRASSHOPPER;
     }
 }
 
 /**
  * Represents a Butterfly insect that moves orthogonally.
  */
-class Butterfly extends Insect implements OrthogonalMoving {
+class Butterfly extends Insect {
     /**
      * Creates a new Butterfly at the given position with the specified color.
      *
@@ -875,31 +6306,15 @@ class Butterfly extends Insect implements OrthogonalMoving {
     }
 
     @Override
-    public Direction getBestDirection(Board boardData, int boardSize) {
-        int northVal = getOrthogonalDirectionVisibleValue(Direction.N, entityPosition, boardData, boardSize);
-        int eastVal = getOrthogonalDirectionVisibleValue(Direction.E, entityPosition, boardData, boardSize);
-        int southVal = getOrthogonalDirectionVisibleValue(Direction.S, entityPosition, boardData, boardSize);
-        int westVal = getOrthogonalDirectionVisibleValue(Direction.W, entityPosition, boardData, boardSize);
-        int maxValue = Math.max(northVal, Math.max(eastVal, Math.max(southVal, westVal)));
-
-        if (northVal >= maxValue) {
-            return Direction.N;
-        }
-        if (eastVal >= maxValue) {
-            return Direction.E;
-        }
-        if (southVal >= maxValue) {
-            return Direction.S;
-        }
-
-        return Direction.W;
+    public InsectType getType() {
+        return InsectType.BUTTERFLY;
     }
 }
 
 /**
  * Represents a Spider insect that moves diagonally.
  */
-class Spider extends Insect implements DiagonalMoving {
+class Spider extends Insect {
     /**
      * Creates a new Spider at the given position with the specified color.
      *
@@ -911,31 +6326,15 @@ class Spider extends Insect implements DiagonalMoving {
     }
 
     @Override
-    public Direction getBestDirection(Board boardData, int boardSize) {
-        int northEastVal = getDiagonalDirectionVisibleValue(Direction.NE, entityPosition, boardData, boardSize);
-        int southEastVal = getDiagonalDirectionVisibleValue(Direction.SE, entityPosition, boardData, boardSize);
-        int southWestVal = getDiagonalDirectionVisibleValue(Direction.SW, entityPosition, boardData, boardSize);
-        int northWestVal = getDiagonalDirectionVisibleValue(Direction.NW, entityPosition, boardData, boardSize);
-        int maxValue = Math.max(northEastVal, Math.max(southEastVal, Math.max(southWestVal, northWestVal)));
-
-        if (northEastVal >= maxValue) {
-            return Direction.NE;
-        }
-        if (southEastVal >= maxValue) {
-            return Direction.SE;
-        }
-        if (southWestVal >= maxValue) {
-            return Direction.SW;
-        }
-
-        return Direction.NW;
+    public InsectType getType() {
+        return InsectType.SPIDER;
     }
 }
 
 /**
  * Represents an Ant insect that can move both orthogonally and diagonally.
  */
-class Ant extends Insect implements OrthogonalMoving, DiagonalMoving {
+class Ant extends Insect {
     /**
      * Creates a new Ant at the given position with the specified color.
      *
@@ -947,40 +6346,8 @@ class Ant extends Insect implements OrthogonalMoving, DiagonalMoving {
     }
 
     @Override
-    public Direction getBestDirection(Board boardData, int boardSize) {
-        int northVal = getOrthogonalDirectionVisibleValue(Direction.N, entityPosition, boardData, boardSize);
-        int eastVal = getOrthogonalDirectionVisibleValue(Direction.E, entityPosition, boardData, boardSize);
-        int southVal = getOrthogonalDirectionVisibleValue(Direction.S, entityPosition, boardData, boardSize);
-        int westVal = getOrthogonalDirectionVisibleValue(Direction.W, entityPosition, boardData, boardSize);
-        int northEastVal = getDiagonalDirectionVisibleValue(Direction.NE, entityPosition, boardData, boardSize);
-        int southEastVal = getDiagonalDirectionVisibleValue(Direction.SE, entityPosition, boardData, boardSize);
-        int southWestVal = getDiagonalDirectionVisibleValue(Direction.SW, entityPosition, boardData, boardSize);
-        int northWestVal = getDiagonalDirectionVisibleValue(Direction.NW, entityPosition, boardData, boardSize);
-        int maxValue = Math.max(northVal, Math.max(eastVal, Math.max(southVal, Math.max(westVal,
-                Math.max(northEastVal, Math.max(southEastVal, Math.max(southWestVal, northWestVal)))))));
-
-        if (northVal >= maxValue) {
-            return Direction.N;
-        }
-        if (eastVal >= maxValue) {
-            return Direction.E;
-        }
-        if (southVal >= maxValue) {
-            return Direction.S;
-        }
-        if (westVal >= maxValue) {
-            return Direction.W;
-        }
-        if (northEastVal >= maxValue) {
-            return Direction.NE;
-        }
-        if (southEastVal >= maxValue) {
-            return Direction.SE;
-        }
-        if (southWestVal >= maxValue) {
-            return Direction.SW;
-        }
-        return Direction.NW;
+    public InsectType getType() {
+        return InsectType.ANT;
     }
 }
 
@@ -988,32 +6355,530 @@ class Ant extends Insect implements OrthogonalMoving, DiagonalMoving {
  * Represents an insect that has been eliminated from the game with its results.
  */
 class EliminatedInsect {
-    private String colorName;
-    private String insectType;
+    private InsectColor color;
+    private InsectType insectType;
     private Direction dir;
     private int amountOfFoodEaten;
 
     /**
      * Creates a new EliminatedInsect record.
      *
-     * @param colorName the color name of the insect
+     * @param color the color of the insect
      * @param insectType the type of the insect
      * @param dir the direction chosen by the insect
      * @param amountOfFoodEaten the amount of food eaten by the insect
      */
-    public EliminatedInsect(String colorName, String insectType, Direction dir, int amountOfFoodEaten) {
-        this.colorName = colorName;
+    public EliminatedInsect(InsectColor color, InsectType insectType, Direction dir, int amountOfFoodEaten) {
+        this.color = color;
         this.insectType = insectType;
         this.dir = dir;
         this.amountOfFoodEaten = amountOfFoodEaten;
     }
 
+    /**
+     * Gets the color of the insect.
+     *
+     * @return the color
+     */
+    public InsectColor getColor() {
+        return color;
+    }
+
+    /**
+     * Gets the type of the insect.
+     *
+     * @return the insect type
+     */
+    public InsectType getInsectType() {
+        return insectType;
+    }
+
+    /**
+     * Gets the direction chosen by the insect.
+     *
+     * @return the direction
+     */
+    public Direction getDirection() {
+        return dir;
+    }
+
+    /**
+     * Gets the amount of food eaten by the insect.
+     *
+     * @return the amount of food eaten
+     */
+    public int getAmountOfFoodEaten() {
+        return amountOfFoodEaten;
+    }
+
     /**
      * Generates the result string for the eliminated insect.
      *
      * @return the formatted result string
      */
     public String getInsectResultString() {
-        return colorName + " " + insectType + " " + dir.getTextRepresentation() + " " + amountOfFoodEaten;
+        return color.getDisplayName() + " " + insectType.getDisplayName() + " " + dir.getTextRepresentation()
+                + " " + amountOfFoodEaten;
+    }
+}
+
+/**
+ * Compact binary form of the results of a simulation, encoded and decoded without going through text.
+ * The data starts with the magic bytes "GBR", a version byte and a record kind byte.
+ * A result record holds the number of insects as a varint followed by four columns: the color,
+ * type and direction ordinals as one byte per insect, then the food amounts as zigzag varints.
+ * An error record holds the length of the message in bytes as a varint followed by its UTF-8 bytes.
+ */
+class BinaryResults {
+    private static final byte[] MAGIC = {'G', 'B', 'R'};
+    private static final byte VERSION = 1;
+    private static final byte RESULT_RECORD = 0;
+    private static final byte ERROR_RECORD = 1;
+    private static final int HEADER_BYTES = MAGIC.length + 2;
+    private static final int MAX_VARINT_BYTES = 5;
+
+    private final List<EliminatedInsect> results;
+    private final String error;
+
+    /**
+     * Creates decoded results.
+     *
+     * @param results the eliminated insects, or null for an error record
+     * @param error the error message, or null for a result record
+     */
+    private BinaryResults(List<EliminatedInsect> results, String error) {
+        this.results = results;
+        this.error = error;
+    }
+
+    /**
+     * Encodes the results of a simulation.
+     *
+     * @param eliminatedInsects the eliminated insects in turn order
+     * @return the encoded record
+     */
+    public static byte[] encode(List<EliminatedInsect> eliminatedInsects) {
+        int count = eliminatedInsects.size();
+        byte[] data = new byte[HEADER_BYTES + MAX_VARINT_BYTES + count * (3 + MAX_VARINT_BYTES)];
+        int pos = writeHeader(data, RESULT_RECORD);
+        pos = writeVarint(data, pos, count);
+        for (int i = 0; i < count; ++i) {
+            data[pos + i] = (byte) eliminatedInsects.get(i).getColor().ordinal();
+            data[pos + count + i] = (byte) eliminatedInsects.get(i).getInsectType().ordinal();
+            data[pos + 2 * count + i] = (byte) eliminatedInsects.get(i).getDirection().ordinal();
+        }
+        pos += 3 * count;
+        for (EliminatedInsect eliminatedInsect : eliminatedInsects) {
+            int amount = eliminatedInsect.getAmountOfFoodEaten();
+            pos = writeVarint(data, pos, (amount << 1) ^ (amount >> 31));
+        }
+        return Arrays.copyOf(data, pos);
+    }
+
+    /**
+     * Encodes the error message of an invalid scenario.
+     *
+     * @param message the error message
+     * @return the encoded record
+     */
+    public static byte[] encodeError(String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[HEADER_BYTES + MAX_VARINT_BYTES + text.length];
+        int pos = writeVarint(data, writeHeader(data, ERROR_RECORD), text.length);
+        System.arraycopy(text, 0, data, pos, text.length);
+        return Arrays.copyOf(data, pos + text.length);
+    }
+
+    /**
+     * Decodes a record written by encode or encodeError.
+     *
+     * @param data the encoded record
+     * @return the decoded results
+     * @throws IOException if the data is not a valid record
+     */
+    public static BinaryResults decode(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || buffer.get() != VERSION) {
+                throw new IOException("Not a binary result file of version " + VERSION);
+            }
+            byte kind = buffer.get();
+            int count = readVarint(buffer);
+            if (kind == ERROR_RECORD) {
+                if (count < 0 || count > buffer.remaining()) {
+                    throw new IOException("Malformed binary result record");
+                }
+                byte[] text = new byte[count];
+                buffer.get(text);
+                return new BinaryResults(null, new String(text, StandardCharsets.UTF_8));
+            }
+            if (kind != RESULT_RECORD || count < 0 || count > buffer.remaining() / 4) {
+                throw new IOException("Malformed binary result record");
+            }
+            InsectColor[] colors = InsectColor.values();
+            InsectType[] types = InsectType.values();
+            Direction[] directions = Direction.values();
+            int columns = buffer.position();
+            buffer.position(columns + 3 * count);
+            List<EliminatedInsect> results = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                int color = data[columns + i];
+                int type = data[columns + count + i];
+                int direction = data[columns + 2 * count + i];
+                // Checked here, as an insect of no color or type would only fail once it is written out
+                if (color < 0 || color >= colors.length || colors[color] == InsectColor.NONE
+                        || type < 0 || type >= types.length || direction < 0 || direction >= directions.length) {
+                    throw new IOException("Malformed binary result record");
+                }
+                int amount = readVarint(buffer);
+                results.add(new EliminatedInsect(colors[color], types[type], directions[direction],
+                        (amount >>> 1) ^ -(amount & 1)));
+            }
+            return new BinaryResults(results, null);
+        } catch (BufferUnderflowException | IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("Malformed binary result record", ex);
+        }
+    }
+
+    /**
+     * Reads and decodes a binary result file.
+     *
+     * @param file the file
+     * @return the decoded results
+     * @throws IOException if the file cannot be read or is not a valid record
+     */
+    public static BinaryResults read(File file) throws IOException {
+        return decode(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Checks if the record is the error message of an invalid scenario.
+     *
+     * @return true for an error record
+     */
+    public boolean isError() {
+        return error != null;
+    }
+
+    /**
+     * Gets the error message of an invalid scenario.
+     *
+     * @return the error message, or null for a result record
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Gets the eliminated insects.
+     *
+     * @return the eliminated insects in turn order, or null for an error record
+     */
+    public List<EliminatedInsect> getResults() {
+        return results;
+    }
+
+    /**
+     * Converts the record to the text a text output file would hold.
+     *
+     * @return the results, one line per insect, or the error message
+     */
+    public String toText() {
+        if (error != null) {
+            return error;
+        }
+        StringBuilder text = new StringBuilder();
+        for (EliminatedInsect eliminatedInsect : results) {
+            text.append(eliminatedInsect.getInsectResultString()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes the magic, the version and the record kind.
+     *
+     * @param data the buffer to write to
+     * @param kind the record kind
+     * @return the position after the header
+     */
+    private static int writeHeader(byte[] data, byte kind) {
+        System.arraycopy(MAGIC, 0, data, 0, MAGIC.length);
+        data[MAGIC.length] = VERSION;
+        data[MAGIC.length + 1] = kind;
+        return HEADER_BYTES;
+    }
+
+    /**
+     * Writes an unsigned varint, seven bits per byte with the high bit set on all but the last byte.
+     *
+     * @param data the buffer to write to
+     * @param pos the position to write at
+     * @param value the value, read as unsigned
+     * @return the position after the varint
+     */
+    private static int writeVarint(byte[] data, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @param buffer the buffer to read from
+     * @return the value
+     * @throws IOException if the varint is longer than five bytes
+     */
+    private static int readVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 7 * MAX_VARINT_BYTES; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
+
+/**
+ * Versioned binary snapshot of a board, restored by memory-mapping the file instead of parsing and
+ * validating the scenario again. The file starts with the magic bytes 0x89 "GBS", whose first byte cannot
+ * start a text scenario, and a version byte, then holds
+ * the board size, the number of entity slots, the index of the first food point, the index of the last
+ * insect and a flags word, followed by one record of four ints per slot in insertion order: x, y, food value
+ * and kind. The kind is the insect type ordinal with the color ordinal in its second byte, the number of
+ * insect types for a food point, or -1 for a slot removed during a simulation. Removed slots keep their
+ * index, so a snapshot taken mid-simulation restores a board the remaining turns can be played on.
+ * Ints are big-endian.
+ */
+class BoardSnapshot {
+    private static final byte[] MAGIC = {(byte) 0x89, 'G', 'B', 'S'};
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = MAGIC.length + 1 + 5 * Integer.BYTES;
+    private static final int RECORD_BYTES = 4 * Integer.BYTES;
+    private static final int MAX_MAPPED_RECORDS = 1 << 26;
+    private static final int REMOVED = -1;
+    private static final int FOOD = InsectType.values().length;
+    private static final int SHARED_POSITIONS = 1;
+    private static final InsectType[] INSECT_TYPES = InsectType.values();
+    private static final InsectColor[] INSECT_COLORS = InsectColor.values();
+
+    /**
+     * Writes a snapshot of a board.
+     *
+     * @param board the board
+     * @param file the file to write the snapshot to
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Board board, File file) throws IOException {
+        int slots = board.getLastIdx() + 1;
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            output.write(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(board.getSize());
+            output.writeInt(slots);
+            output.writeInt(board.getFirstIdxOfFood());
+            output.writeInt(board.getLastIdxOfInsect());
+            output.writeInt(board.hasSharedPositions() ? SHARED_POSITIONS : 0);
+            for (int i = 0; i < slots; ++i) {
+                BoardEntity entity = board.getEntity(i);
+                if (entity == null) {
+                    output.writeInt(0);
+                    output.writeInt(0);
+                    output.writeInt(0);
+                    output.writeInt(REMOVED);
+                    continue;
+                }
+                output.writeInt(entity.entityPosition.getX());
+                output.writeInt(entity.entityPosition.getY());
+                if (entity instanceof FoodPoint foodPoint) {
+                    output.writeInt(foodPoint.getValue());
+                    output.writeInt(FOOD);
+                } else {
+                    Insect insect = (Insect) entity;
+                    output.writeInt(0);
+                    output.writeInt(insect.getType().ordinal() | insect.insectColor.ordinal() << 8);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if a file starts like a board snapshot.
+     *
+     * @param file the file
+     * @return true if the file starts with the snapshot magic bytes, false otherwise or if it cannot be read
+     */
+    public static boolean isSnapshot(File file) {
+        try (FileInputStream input = new FileInputStream(file)) {
+            return Arrays.equals(input.readNBytes(MAGIC.length), MAGIC);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if data held in memory starts like a board snapshot.
+     *
+     * @param data the data
+     * @return true if the data starts with the snapshot magic bytes, false otherwise
+     */
+    public static boolean isSnapshot(byte[] data) {
+        return data.length >= MAGIC.length && Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * Restores a board from a snapshot, with the storage and ray options of a configuration.
+     * The header is checked against the limits of the configuration and every record against its slot,
+     * so a damaged file is rejected before the board is allocated or played. Rules of the game that do not
+     * keep the board from being played, such as duplicate insects, are not checked again.
+     *
+     * @param file the snapshot file
+     * @param config the simulation configuration
+     * @return the restored board
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static Board read(File file, SimulationConfig config) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            ByteBuffer header = length < HEADER_BYTES ? null
+                    : channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            return restore(header, length, config, (first, count) -> channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + first * RECORD_BYTES, (long) count * RECORD_BYTES).asIntBuffer());
+        }
+    }
+
+    /**
+     * Restores a board from a snapshot held in memory, as read restores it from a file.
+     *
+     * @param data the snapshot
+     * @param config the simulation configuration
+     * @return the restored board
+     * @throws IOException if the data is not a valid snapshot
+     */
+    public static Board read(byte[] data, SimulationConfig config) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        return restore(data.length < HEADER_BYTES ? null : buffer, data.length, config, (first, count) ->
+                buffer.slice(HEADER_BYTES + (int) first * RECORD_BYTES, count * RECORD_BYTES).asIntBuffer());
+    }
+
+    /**
+     * Checks the header of a snapshot and restores the board from its records.
+     *
+     * @param header the header, or null if the snapshot is shorter than a header
+     * @param length the length of the snapshot in bytes
+     * @param config the simulation configuration
+     * @param records the records of the snapshot
+     * @return the restored board
+     * @throws IOException if the records cannot be read or the snapshot is not valid
+     */
+    private static Board restore(ByteBuffer header, long length, SimulationConfig config, RecordSource records)
+            throws IOException {
+        if (header == null) {
+            throw new IOException("Not a board snapshot of version " + VERSION);
+        }
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || header.get() != VERSION) {
+                throw new IOException("Not a board snapshot of version " + VERSION);
+            }
+            int size = header.getInt();
+            int slots = header.getInt();
+            int firstIdxOfFood = header.getInt();
+            int lastIdxOfInsect = header.getInt();
+            int flags = header.getInt();
+            // Insects come first, then at least one food point, as in a scenario that passed validation
+            if (size < 1 || size > config.getMaxBoardSize() || slots < 0
+                    || lastIdxOfInsect < 0 || lastIdxOfInsect >= config.getMaxInsectNumber()
+                    || firstIdxOfFood != lastIdxOfInsect + 1 || firstIdxOfFood >= slots
+                    || slots - firstIdxOfFood > config.getMaxFoodNumber()
+                    || length != HEADER_BYTES + (long) slots * RECORD_BYTES) {
+                throw new IOException("Malformed board snapshot");
+            }
+            Board board = GameBoard.createBoard(config, size, slots);
+            for (long first = 0; first < slots; first += MAX_MAPPED_RECORDS) {
+                int count = (int) Math.min(MAX_MAPPED_RECORDS, slots - first);
+                IntBuffer ints = records.map(first, count);
+                for (int i = 0; i < count; ++i) {
+                    int x = ints.get();
+                    int y = ints.get();
+                    int value = ints.get();
+                    int kind = ints.get();
+                    if (!isValidRecord(x, y, kind, size, first + i <= lastIdxOfInsect)) {
+                        throw new IOException("Malformed board snapshot");
+                    }
+                    board.restoreEntity(entityOf(x, y, value, kind), kind == REMOVED);
+                }
+            }
+            board.restoreOrder(firstIdxOfFood, lastIdxOfInsect, (flags & SHARED_POSITIONS) != 0);
+            return board;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            throw new IOException("Malformed board snapshot", ex);
+        }
+    }
+
+    /**
+     * Source of the entity records of a snapshot.
+     */
+    private interface RecordSource {
+        /**
+         * Gets consecutive records as ints.
+         *
+         * @param first the index of the first record
+         * @param count the number of records
+         * @return the ints of the records
+         * @throws IOException if the records cannot be read
+         */
+        IntBuffer map(long first, int count) throws IOException;
+    }
+
+    /**
+     * Checks a snapshot record against its slot.
+     * Food points are not checked against the board, as scenarios do not check them either.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param kind the kind of the entity
+     * @param size the board size
+     * @param insectSlot true if the slot is before the first food point
+     * @return true if the record can be restored in the slot, false otherwise
+     */
+    private static boolean isValidRecord(int x, int y, int kind, int size, boolean insectSlot) {
+        if (kind == REMOVED) {
+            return true;
+        }
+        if (!insectSlot) {
+            return kind == FOOD;
+        }
+        int color = kind >>> 8;
+        return (kind & 0xFF) < INSECT_TYPES.length && color < INSECT_COLORS.length
+                && INSECT_COLORS[color] != InsectColor.NONE && x >= 1 && y >= 1 && x <= size && y <= size;
+    }
+
+    /**
+     * Creates the entity of a snapshot record.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param value the food value
+     * @param kind the kind of the entity
+     * @return the entity, or an empty food point standing for a removed slot
+     */
+    private static BoardEntity entityOf(int x, int y, int value, int kind) {
+        EntityPosition position = new EntityPosition(x, y);
+        if (kind == FOOD || kind == REMOVED) {
+            return new FoodPoint(position, kind == FOOD ? value : 0);
+        }
+        return INSECT_TYPES[kind & 0xFF].create(position, INSECT_COLORS[kind >>> 8]);
     }
 }
@@ -0,0 +1,407 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Microbenchmarks for the hot paths of the insect simulation.
+ * Every benchmark runs warmup and measurement iterations and reports operations per second
+ * and bytes allocated per operation, for every combination of board size, insect count and food density.
+ * Setup done before an invocation is neither timed nor counted as allocation.
+ */
+public class GameBoardBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 500_000_000L;
+    private static final long MAX_ITERATION_WALL_NANOS = 4 * ITERATION_NANOS;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long blackhole;
+
+    /**
+     * A benchmarked operation.
+     */
+    interface Benchmark {
+        /**
+         * Prepares one invocation; not measured.
+         *
+         * @throws Exception if the preparation fails
+         */
+        default void setUp() throws Exception {
+        }
+
+        /**
+         * Runs one measured invocation.
+         *
+         * @return the number of operations performed
+         * @throws Exception if the invocation fails
+         */
+        int run() throws Exception;
+    }
+
+    /**
+     * Runs one benchmark and prints its results.
+     *
+     * @param name the benchmark name
+     * @param params the parameter description
+     * @param benchmark the benchmark
+     * @throws Exception if the benchmark fails
+     */
+    private static void measure(String name, String params, Benchmark benchmark) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            runIteration(benchmark);
+        }
+        double[] opsPerSecond = new double[MEASUREMENT_ITERATIONS];
+        double bytesPerOp = 0;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; ++i) {
+            double[] result = runIteration(benchmark);
+            opsPerSecond[i] = result[0];
+            bytesPerOp += result[1] / MEASUREMENT_ITERATIONS;
+        }
+        double mean = 0;
+        for (double value : opsPerSecond) {
+            mean += value / MEASUREMENT_ITERATIONS;
+        }
+        double variance = 0;
+        for (double value : opsPerSecond) {
+            variance += (value - mean) * (value - mean) / Math.max(1, MEASUREMENT_ITERATIONS - 1);
+        }
+        System.out.printf("%-32s %-36s %16.1f +- %12.1f ops/s %12.1f B/op%n",
+                name, params, mean, Math.sqrt(variance), bytesPerOp);
+    }
+
+    /**
+     * Runs invocations of a benchmark until the iteration time is used up.
+     * Slow setups can stretch an iteration to at most four times its time in total.
+     *
+     * @param benchmark the benchmark
+     * @return the operations per second and the bytes allocated per operation
+     * @throws Exception if the benchmark fails
+     */
+    private static double[] runIteration(Benchmark benchmark) throws Exception {
+        long threadId = Thread.currentThread().getId();
+        long measuredNanos = 0;
+        long allocatedBytes = 0;
+        long operations = 0;
+        long iterationStart = System.nanoTime();
+        while (measuredNanos < ITERATION_NANOS && System.nanoTime() - iterationStart < MAX_ITERATION_WALL_NANOS) {
+            benchmark.setUp();
+            long bytesBefore = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            operations += benchmark.run();
+            measuredNanos += System.nanoTime() - start;
+            allocatedBytes += THREADS.getThreadAllocatedBytes(threadId) - bytesBefore;
+        }
+        return new double[] {operations * 1e9 / measuredNanos, (double) allocatedBytes / operations};
+    }
+
+    /**
+     * Parses a comma-separated list of integers.
+     *
+     * @param value the list
+     * @return the parsed integers
+     */
+    private static int[] parseInts(String value) {
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            result[i] = Integer.parseInt(parts[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Parses a comma-separated list of decimals.
+     *
+     * @param value the list
+     * @return the parsed decimals
+     */
+    private static double[] parseDoubles(String value) {
+        String[] parts = value.split(",");
+        double[] result = new double[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            result[i] = Double.parseDouble(parts[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Runs the benchmarks.
+     * Options: --sizes 100,1000 --insects 4,16 --densities 0.001,0.05 --seed 42 --filter name.
+     *
+     * @param args command line arguments
+     * @throws Exception if a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {100, 1000};
+        int[] insectCounts = {4, 16};
+        double[] densities = {0.0002, 0.01, 0.2};
+        long seed = 42;
+        String filter = "";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--sizes" -> sizes = parseInts(args[i + 1]);
+                case "--insects" -> insectCounts = parseInts(args[i + 1]);
+                case "--densities" -> densities = parseDoubles(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                case "--filter" -> filter = args[i + 1];
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        for (int size : sizes) {
+            for (int insectCount : insectCounts) {
+                for (double density : densities) {
+                    runAll(new ScenarioGenerator(seed, size, insectCount, density), filter);
+                }
+            }
+        }
+        System.out.println("# blackhole " + blackhole);
+    }
+
+    /**
+     * Runs every benchmark matching the filter on one generated scenario.
+     *
+     * @param generator the scenario generator
+     * @param filter the substring benchmark names must contain
+     * @throws Exception if a benchmark fails
+     */
+    private static void runAll(ScenarioGenerator generator, String filter) throws Exception {
+        String params = generator.describe();
+        File inputFile = File.createTempFile("scenario", ".txt");
+        File outputFile = File.createTempFile("output", ".txt");
+        inputFile.deleteOnExit();
+        outputFile.deleteOnExit();
+        GameBoard.BenchmarkTarget target = generator.createTarget();
+        target.writeTo(inputFile);
+
+        List<String> names = new ArrayList<>();
+        List<Benchmark> benchmarks = new ArrayList<>();
+
+        names.add("GameBoard.readData");
+        benchmarks.add(() -> {
+            GameBoard gameBoard = GameBoard.BenchmarkTarget.createUnlimitedGameBoard();
+            blackhole += gameBoard.readData(inputFile, outputFile, false) ? 1 : 0;
+            return 1;
+        });
+
+        int[] probes = generator.randomPositions(1024);
+        names.add("Board.getEntity(EntityPosition)");
+        benchmarks.add(() -> {
+            blackhole += target.lookUp(probes);
+            return probes.length / 2;
+        });
+
+        for (int type = 0; type < GameBoard.BenchmarkTarget.getTypeCount(); ++type) {
+            int decidingType = type;
+            names.add(GameBoard.BenchmarkTarget.getTypeName(type) + ".getBestDirection");
+            benchmarks.add(() -> {
+                blackhole += target.decide(decidingType);
+                return target.getInsectCount();
+            });
+        }
+
+        for (String typeName : new String[] {"Ant", "Grasshopper"}) {
+            int type = indexOfType(typeName);
+            names.add(typeName.equals("Ant") ? "Insect.travelDirection" : "Grasshopper.travelDirection");
+            benchmarks.add(new Benchmark() {
+                @Override
+                public void setUp() {
+                    target.prepareTravel(type);
+                }
+
+                @Override
+                public int run() {
+                    blackhole += target.travel(typeName.equals("Ant") ? 8 : 4);
+                    return target.getInsectCount();
+                }
+            });
+        }
+
+        int resultCount = 4096;
+        target.prepareResults(generator.getResultSeed(), resultCount);
+        names.add("EliminatedInsect.write[text]");
+        benchmarks.add(() -> {
+            Writer output = new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream()));
+            target.writeTextResults(output);
+            output.flush();
+            return resultCount;
+        });
+        names.add("EliminatedInsect.write[binary]");
+        benchmarks.add(() -> {
+            OutputStream.nullOutputStream().write(target.encodeResults());
+            return resultCount;
+        });
+
+        for (int strategy = 0; strategy < GameBoard.BenchmarkTarget.getRayStrategyCount(); ++strategy) {
+            int rayStrategy = strategy;
+            names.add("Board.getVisibleFoodValue[" + GameBoard.BenchmarkTarget.getRayStrategyName(strategy) + "]");
+            benchmarks.add(new Benchmark() {
+                @Override
+                public void setUp() {
+                    // Rays only read the board, so one board serves every invocation
+                    target.prepareRays(rayStrategy);
+                }
+
+                @Override
+                public int run() {
+                    blackhole += target.sumOrthogonalRays(rayStrategy, probes);
+                    return probes.length / 2 * 4;
+                }
+            });
+        }
+
+        for (int i = 0; i < names.size(); ++i) {
+            if (names.get(i).contains(filter)) {
+                measure(names.get(i), params, benchmarks.get(i));
+            }
+        }
+    }
+
+    /**
+     * Finds an insect type by its name.
+     *
+     * @param typeName the name of the type as it appears in the results
+     * @return the type ordinal
+     */
+    private static int indexOfType(String typeName) {
+        for (int type = 0; type < GameBoard.BenchmarkTarget.getTypeCount(); ++type) {
+            if (GameBoard.BenchmarkTarget.getTypeName(type).equals(typeName)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown insect type " + typeName);
+    }
+}
+
+/**
+ * Generates seeded random scenarios with a given board size, insect count and food density.
+ * The same seed and parameters always give the same scenario.
+ */
+class ScenarioGenerator {
+    private final long seed;
+    private final int size;
+    private final int insectCount;
+    private final double density;
+    private final int[] insectXs;
+    private final int[] insectYs;
+    private final int[] insectTypes;
+    private final int[] insectColors;
+    private final int[] foodXs;
+    private final int[] foodYs;
+    private final int[] foodValues;
+
+    /**
+     * Creates a new ScenarioGenerator and generates its scenario.
+     *
+     * @param seed the random seed
+     * @param size the board size
+     * @param insectCount the number of insects, at most 16 so that all of them differ in type or color
+     * @param density the fraction of the cells holding food
+     */
+    public ScenarioGenerator(long seed, int size, int insectCount, double density) {
+        this.seed = seed;
+        this.size = size;
+        this.insectCount = insectCount;
+        this.density = density;
+        Random random = new Random(seed);
+        boolean[] taken = new boolean[size * size];
+        insectXs = new int[insectCount];
+        insectYs = new int[insectCount];
+        insectTypes = new int[insectCount];
+        insectColors = new int[insectCount];
+        int typeCount = GameBoard.BenchmarkTarget.getTypeCount();
+        for (int i = 0; i < insectCount; ++i) {
+            int cell = freeCell(random, taken);
+            insectXs[i] = cell % size + 1;
+            insectYs[i] = cell / size + 1;
+            insectTypes[i] = i % typeCount;
+            insectColors[i] = i / typeCount % GameBoard.BenchmarkTarget.getColorCount();
+        }
+        int foodCount = Math.max(1, (int) Math.min(size * (long) size - insectCount, Math.round(density * size * size)));
+        foodXs = new int[foodCount];
+        foodYs = new int[foodCount];
+        foodValues = new int[foodCount];
+        for (int i = 0; i < foodCount; ++i) {
+            int cell = freeCell(random, taken);
+            foodXs[i] = cell % size + 1;
+            foodYs[i] = cell / size + 1;
+            foodValues[i] = 1 + random.nextInt(100);
+        }
+    }
+
+    /**
+     * Picks a random free cell and marks it as taken.
+     *
+     * @param random the random source
+     * @param taken the taken cells
+     * @return the picked cell
+     */
+    private static int freeCell(Random random, boolean[] taken) {
+        int cell = random.nextInt(taken.length);
+        while (taken[cell]) {
+            cell = cell + 1 == taken.length ? 0 : cell + 1;
+        }
+        taken[cell] = true;
+        return cell;
+    }
+
+    /**
+     * Gets the board size.
+     *
+     * @return the board size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Describes the parameters of the scenario.
+     *
+     * @return the description
+     */
+    public String describe() {
+        return String.format("size=%d insects=%d density=%s seed=%d", size, insectCount, density, seed);
+    }
+
+    /**
+     * Hands the scenario to the simulation.
+     *
+     * @return the benchmark target holding the scenario
+     */
+    public GameBoard.BenchmarkTarget createTarget() {
+        return new GameBoard.BenchmarkTarget(size, insectXs, insectYs, insectTypes, insectColors,
+                foodXs, foodYs, foodValues);
+    }
+
+    /**
+     * Gets the seed of the random results of eliminated insects, derived from the scenario seed.
+     *
+     * @return the seed
+     */
+    public long getResultSeed() {
+        return seed + 2;
+    }
+
+    /**
+     * Picks random positions on the board from a generator seeded like the scenario.
+     *
+     * @param count the number of positions
+     * @return the x- and y-coordinates, interleaved
+     */
+    public int[] randomPositions(int count) {
+        Random random = new Random(seed + 1);
+        int[] positions = new int[count * 2];
+        for (int i = 0; i < positions.length; ++i) {
+            positions[i] = 1 + random.nextInt(size);
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Management interface of the simulation counters, registered as GameBoard:type=SimulationMetrics.
+ * The counters cover every simulation run in the process since the last reset.
+ */
+public interface SimulationMetricsMBean {
+    /**
+     * Checks if the counters are being updated.
+     *
+     * @return true if the counters are updated
+     */
+    boolean isEnabled();
+
+    /**
+     * Turns the counting on or off.
+     *
+     * @param enabled true to update the counters
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Sets every counter back to zero.
+     */
+    void reset();
+
+    /**
+     * Gets the number of rays looked along or travelled.
+     *
+     * @return the number of rays
+     */
+    long getRays();
+
+    /**
+     * Gets the number of cells looked up while following rays. Rays walked cell by cell, travels and
+     * orthogonal rays of the grid strategy count the cells they visit; food rays of the index strategy
+     * count the Fenwick tree nodes they read, so the figure is logarithmic rather than linear
+     * in the ray length there.
+     *
+     * @return the number of scanned cells
+     */
+    long getCellsScanned();
+
+    /**
+     * Gets the mean number of cells looked up per ray, counted as for {@link #getCellsScanned()}.
+     *
+     * @return the scanned cells per ray, or 0 if no ray was followed
+     */
+    double getCellsScannedPerRay();
+
+    /**
+     * Gets the number of calls to Board.getEntity.
+     *
+     * @return the number of entity lookups
+     */
+    long getEntityLookups();
+
+    /**
+     * Gets the number of food points removed from boards.
+     *
+     * @return the number of removed food points
+     */
+    long getFoodRemoved();
+
+    /**
+     * Gets the number of travels stopped by an insect of another color.
+     *
+     * @return the number of blocked insects
+     */
+    long getInsectsBlocked();
+
+    /**
+     * Gets the time spent reading scenarios.
+     *
+     * @return the parsing time in nanoseconds
+     */
+    long getParseNanos();
+
+    /**
+     * Gets the time spent on the checks made once a scenario is read.
+     *
+     * @return the validation time in nanoseconds
+     */
+    long getValidateNanos();
+
+    /**
+     * Gets the time spent choosing directions.
+     *
+     * @return the decision time in nanoseconds
+     */
+    long getDecideNanos();
+
+    /**
+     * Gets the time spent moving insects and removing them.
+     *
+     * @return the travel time in nanoseconds
+     */
+    long getTravelNanos();
+
+    /**
+     * Gets the time spent writing results.
+     *
+     * @return the writing time in nanoseconds
+     */
+    long getWriteNanos();
+}